@@ -0,0 +1,84 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gridmaplp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks setting up and solving the linear programs of all components.
+ * Solving does not change the cells or sites, so the same input is reused for
+ * each invocation. Only CLP builds its model when the linear program is
+ * created, setting up the other models is measured by
+ * {@link ModelSetupBenchmark}.
+ *
+ * @author msondag
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AssignmentBenchmark {
+
+    @Param({"USAStatesColor.tsv", "NetherlandsMunicipalitySitesColor.tsv", "UKConstituenciesColor.tsv", "synthetic-1000", "synthetic-5000"})
+    public String dataset;
+
+    /**
+     * Maximum amount of sites per region. Regions larger than
+     * {@link LinearProgram#LEAF_SIZE} are bisected by the hierarchical
+     * solver, which only happens for the larger synthetic inputs.
+     */
+    @Param({"60", "1000", "5000"})
+    public int regionSize;
+
+    /**
+     * CLP is left out by default as it requires the native library. Add it
+     * with -p solver=CLP.
+     */
+    @Param({"HUNGARIAN", "HIERARCHICAL"})
+    public String solver;
+
+    private List<Component> components;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        components = new ArrayList();
+        new BenchmarkData(dataset, regionSize).load(components);
+    }
+
+    private List<LinearProgram> createLinearPrograms() {
+        List<LinearProgram> lps = new ArrayList();
+        for (Component c : components) {
+            lps.add(new LinearProgram(c, LinearProgram.Solver.valueOf(solver)));
+        }
+        return lps;
+    }
+
+    @Benchmark
+    public double setupAndSolve() {
+        double cost = 0;
+        for (LinearProgram lp : createLinearPrograms()) {
+            cost += lp.solve();
+        }
+        return cost;
+    }
+}
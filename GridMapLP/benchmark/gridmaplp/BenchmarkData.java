@@ -0,0 +1,215 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gridmaplp;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Input for the benchmarks. Either a site file from Data/maps/Sites, or
+ * "synthetic-n" for n random sites. The sites are split in half until each
+ * region has at most {@code regionSize} sites, and a square mosaic map is
+ * generated with one tile per site close to the site, such that the stage can
+ * be run without the earlier stages of the pipeline.
+ *
+ * @author msondag
+ */
+class BenchmarkData {
+
+    /**
+     * Folder holding the site files. Can be set with -Dgridmaplp.data=...
+     */
+    static final Path DATA_FOLDER = Paths.get(System.getProperty("gridmaplp.data", "../Data/maps/Sites"));
+    /**
+     * Maximum amount of sites per region if none is given.
+     */
+    static final int DEFAULT_REGION_SIZE = 60;
+
+    /**
+     * Sites file with parent labels, in the format read by {@link SiteMap}.
+     */
+    final Path sitePath;
+    /**
+     * Mosaic map with one tile per site.
+     */
+    final Path mosaicPath;
+
+    private final List<String> siteLines = new ArrayList();
+
+    BenchmarkData(String dataset) throws IOException {
+        this(dataset, DEFAULT_REGION_SIZE);
+    }
+
+    BenchmarkData(String dataset, int regionSize) throws IOException {
+        List<double[]> positions = new ArrayList();
+        List<String> labels = new ArrayList();
+        if (dataset.startsWith("synthetic-")) {
+            generateSites(Integer.parseInt(dataset.substring("synthetic-".length())), positions, labels);
+        } else {
+            //label, x, y, red, green, blue
+            for (String line : Files.readAllLines(DATA_FOLDER.resolve(dataset))) {
+                String[] split = line.split("\t");
+                labels.add(split[0]);
+                positions.add(new double[]{Double.parseDouble(split[1]), Double.parseDouble(split[2])});
+            }
+        }
+
+        //split into regions by recursive median cuts
+        String[] regions = new String[positions.size()];
+        List<Integer> all = new ArrayList();
+        for (int i = 0; i < positions.size(); i++) {
+            all.add(i);
+        }
+        split(positions, all, "R", regions, regionSize);
+
+        for (int i = 0; i < positions.size(); i++) {
+            siteLines.add(regions[i] + "\t" + labels.get(i) + "\t" + positions.get(i)[0] + "\t" + positions.get(i)[1] + "\t100\t100\t100");
+        }
+        sitePath = Files.createTempFile("benchmarkSites", ".tsv");
+        sitePath.toFile().deleteOnExit();
+        Files.write(sitePath, siteLines);
+
+        mosaicPath = Files.createTempFile("benchmarkMosaic", ".ipe");
+        mosaicPath.toFile().deleteOnExit();
+        Files.write(mosaicPath, createMosaicMap(positions, regions));
+    }
+
+    /**
+     * Uniformly distributed sites with a few dense clusters, like cities.
+     */
+    private static void generateSites(int n, List<double[]> positions, List<String> labels) {
+        Random r = new Random(42);
+        for (int i = 0; i < n; i++) {
+            double x, y;
+            if (i % 3 == 0) {
+                //cluster around one of 5 centers
+                int cluster = r.nextInt(5);
+                x = 200 * cluster + r.nextGaussian() * 30;
+                y = 150 * (cluster % 2) + r.nextGaussian() * 30;
+            } else {
+                x = r.nextDouble() * 1000;
+                y = r.nextDouble() * 500;
+            }
+            positions.add(new double[]{x, y});
+            labels.add("s" + i);
+        }
+    }
+
+    private static void split(List<double[]> positions, List<Integer> indices, String label, String[] regions, int regionSize) {
+        if (indices.size() <= regionSize) {
+            for (int i : indices) {
+                regions[i] = label;
+            }
+            return;
+        }
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i : indices) {
+            minX = Math.min(minX, positions.get(i)[0]);
+            maxX = Math.max(maxX, positions.get(i)[0]);
+            minY = Math.min(minY, positions.get(i)[1]);
+            maxY = Math.max(maxY, positions.get(i)[1]);
+        }
+        int axis = (maxX - minX) >= (maxY - minY) ? 0 : 1;
+        List<Integer> sorted = new ArrayList(indices);
+        Collections.sort(sorted, (Integer i1, Integer i2) -> Double.compare(positions.get(i1)[axis], positions.get(i2)[axis]));
+        int half = sorted.size() / 2;
+        split(positions, sorted.subList(0, half), label + "0", regions, regionSize);
+        split(positions, sorted.subList(half, sorted.size()), label + "1", regions, regionSize);
+    }
+
+    /**
+     * Places a unit square tile for each site at the free grid position
+     * closest to the site, in the format written by mosaic-maps.
+     */
+    private static List<String> createMosaicMap(List<double[]> positions, String[] regions) {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (double[] p : positions) {
+            minX = Math.min(minX, p[0]);
+            maxX = Math.max(maxX, p[0]);
+            minY = Math.min(minY, p[1]);
+            maxY = Math.max(maxY, p[1]);
+        }
+        int gridSize = (int) Math.ceil(Math.sqrt(positions.size())) + 1;
+        double scale = gridSize / Math.max(1e-9, Math.max(maxX - minX, maxY - minY));
+
+        List<String> lines = new ArrayList();
+        lines.add("<?xml version=\"1.0\"?>");
+        lines.add("<ipe version=\"70107\">");
+        lines.add("<page>");
+        Set<String> used = new HashSet();
+        for (int i = 0; i < positions.size(); i++) {
+            int gx = (int) ((positions.get(i)[0] - minX) * scale);
+            int gy = (int) ((positions.get(i)[1] - minY) * scale);
+            //search rings around the position for a free spot
+            found:
+            for (int ring = 0;; ring++) {
+                for (int dx = -ring; dx <= ring; dx++) {
+                    for (int dy = -ring; dy <= ring; dy++) {
+                        if (Math.max(Math.abs(dx), Math.abs(dy)) != ring || !used.add((gx + dx) + " " + (gy + dy))) {
+                            continue;
+                        }
+                        int x = gx + dx;
+                        int y = gy + dy;
+                        lines.add("<path name=\"" + regions[i] + "\" stroke=\"black\" fill=\"1 1 1\">");
+                        lines.add(x + " " + y + " m");
+                        lines.add((x + 1) + " " + y + " l");
+                        lines.add((x + 1) + " " + (y + 1) + " l");
+                        lines.add(x + " " + (y + 1) + " l");
+                        lines.add("h");
+                        lines.add("</path>");
+                        break found;
+                    }
+                }
+            }
+        }
+        lines.add("</page>");
+        lines.add("</ipe>");
+        return lines;
+    }
+
+    /**
+     * Amount of sites.
+     *
+     * @return
+     */
+    int size() {
+        return siteLines.size();
+    }
+
+    /**
+     * Reads the input the same way {@link GridMapLP} does and returns the
+     * grid. The components are added to {@code components}.
+     *
+     * @param components
+     * @return
+     */
+    CellContainer load(List<Component> components) {
+        MosaicCellMap mosaicCellMap = new MosaicCellMap(mosaicPath);
+        CellContainer grid = new CellContainer(mosaicCellMap);
+        SiteMap siteMap = new SiteMap(sitePath);
+        siteMap.shiftTarget(mosaicCellMap.getMosaicHeight(), mosaicCellMap.getMosaicWidth());
+
+        List<String> labels = new ArrayList();
+        for (String label : mosaicCellMap.getLabels()) {
+            labels.add(label);
+        }
+        Collections.sort(labels);
+        for (String label : labels) {
+            components.add(new Component(siteMap.get(label), grid.getCellsByLabel(label)));
+        }
+        return grid;
+    }
+}
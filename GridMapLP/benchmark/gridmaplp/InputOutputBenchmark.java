@@ -0,0 +1,95 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gridmaplp;
+
+import Utility.IpeWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks reading the mosaic map and writing the gridmap.
+ *
+ * @author msondag
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InputOutputBenchmark {
+
+    @Param({"USAStatesColor.tsv", "NetherlandsMunicipalitySitesColor.tsv", "UKConstituenciesColor.tsv", "synthetic-1000", "synthetic-20000"})
+    public String dataset;
+
+    @Param({"false", "true"})
+    public boolean useHexTiles;
+
+    private BenchmarkData data;
+    private CellContainer grid;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        data = new BenchmarkData(dataset);
+        List<Component> components = new ArrayList();
+        grid = data.load(components);
+        for (Component c : components) {
+            new LinearProgram(c).solveLP();
+        }
+    }
+
+    @Benchmark
+    public MosaicCellMap parseMosaicMap() {
+        return new MosaicCellMap(data.mosaicPath);
+    }
+
+    @Benchmark
+    public String toIpe() {
+        return grid.toIpe(useHexTiles);
+    }
+
+    @Benchmark
+    public void writeIpe() throws IOException {
+        grid.writeIpe(new IpeWriter(new NullWriter()), useHexTiles);
+    }
+
+    /**
+     * Discards everything, such that only the formatting is measured.
+     */
+    private static class NullWriter extends Writer {
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void write(String str) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
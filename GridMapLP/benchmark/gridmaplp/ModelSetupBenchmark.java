@@ -0,0 +1,81 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gridmaplp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks building the model of all components without solving it: the
+ * cost matrices for the hungarian solver and the linear programs for CLP.
+ * The hierarchical solver only builds its models while splitting the
+ * component, so it is measured by {@link AssignmentBenchmark} only.
+ *
+ * @author msondag
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModelSetupBenchmark {
+
+    @Param({"USAStatesColor.tsv", "NetherlandsMunicipalitySitesColor.tsv", "UKConstituenciesColor.tsv", "synthetic-1000", "synthetic-5000"})
+    public String dataset;
+
+    /**
+     * Maximum amount of sites per region, the cost matrices grow
+     * quadratically with it.
+     */
+    @Param({"60", "1000", "5000"})
+    public int regionSize;
+
+    /**
+     * CLP is left out by default as it requires the native library. Add it
+     * with -p solver=CLP.
+     */
+    @Param({"HUNGARIAN"})
+    public String solver;
+
+    private List<Component> components;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        if (!"HUNGARIAN".equals(solver) && !"CLP".equals(solver)) {
+            throw new IllegalArgumentException("Setting up the model of solver " + solver + " cannot be measured separately");
+        }
+        components = new ArrayList();
+        new BenchmarkData(dataset, regionSize).load(components);
+    }
+
+    @Benchmark
+    public void setup(Blackhole bh) {
+        for (Component c : components) {
+            if ("CLP".equals(solver)) {
+                //builds the linear program
+                bh.consume(new LinearProgram(c, LinearProgram.Solver.CLP));
+            } else {
+                bh.consume(LinearProgram.createCostMatrix(c.sites, c.cells));
+            }
+        }
+    }
+}
@@ -2,6 +2,10 @@ package Utility;
 
 import java.awt.Color;
 import java.awt.Rectangle;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  *
@@ -77,46 +81,14 @@ public class IpeExporter {
      * @return
      */
     public static String getHexagon(double centerX, double centerY, double sideLength, String labelText, Color color, String province) {
-        double red = color.getRed() / 255.0;
-        double green = color.getGreen() / 255.0;
-        double blue = color.getBlue() / 255.0;
-
-        //bottom
-        double x1 = centerX;
-        double y1 = centerY - sideLength;
-        //bottomRight
-        double x2 = x1 + 0.5 * Math.sqrt(3);
-        double y2 = y1 + sideLength / 2;
-        //topRight
-        double x3 = x2;
-        double y3 = y2 + sideLength;
-        //top
-        double x4 = centerX;
-        double y4 = centerY + sideLength;
-        //topleft
-        double x5 = x4 - 0.5 * Math.sqrt(3);
-        double y5 = y4 - sideLength / 2;
-        //bottomLeft
-        double x6 = x5;
-        double y6 = y5 - sideLength;
-
-        String ipeRect = "<path layer=\"" + province + "\" stroke=\"black\" "
-                         + "fill=\"" + red + " " + green + " " + blue + "\">\n"
-                         + x1 + " " + y1 + " m\n"
-                         + x2 + " " + y2 + " l\n"
-                         + x3 + " " + y3 + " l\n"
-                         + x4 + " " + y4 + " l\n"
-                         + x5 + " " + y5 + " l\n"
-                         + x6 + " " + y6 + " l\n"
-                         + "h\n"
-                         + "</path>\n";
-
-        if ("".equals(labelText)) {
-            return ipeRect;
+        StringWriter sw = new StringWriter();
+        try {
+            new IpeWriter(sw).writeHexagon(centerX, centerY, sideLength, labelText, color, province);
+        } catch (IOException ex) {
+            //cannot happen for a StringWriter
+            Logger.getLogger(IpeExporter.class.getName()).log(Level.SEVERE, null, ex);
         }
-        String ipeLabel = "<text size=\"small\" layer=\"text\" transformations=\"translations\" pos=\"" + centerX + " " + centerY + "\" stroke=\"black\" type=\"label\" width=\"4.981\" height=\"6.42\" depth=\"0\" halign=\"center\" valign=\"center\">" + labelText + "</text>\n";
-        return ipeRect + ipeLabel;
-
+        return sw.toString();
     }
 
     /**
@@ -132,27 +104,14 @@ public class IpeExporter {
      * @return
      */
     public static String getRectangle(double x, double y, double w, double h, String labelText, Color color, String province) {
-        double red = color.getRed() / 255.0;
-        double green = color.getGreen() / 255.0;
-        double blue = color.getBlue() / 255.0;
-        String ipeRect = "<path layer=\"" + province + "\" stroke=\"black\" "
-                         + "fill=\"" + red + " " + green + " " + blue + "\">\n"
-                         + x + " " + (y + h) + " m\n"
-                         + x + " " + y + " l\n"
-                         + (x + w) + " " + y + " l\n"
-                         + (x + w) + " " + (y + h) + " l\n"
-                         + "h\n"
-                         + "</path>\n";
-
-        double outputX = x + w / 2.0;
-        double outputY = y + h / 2.0;
-
-        if ("".equals(labelText)) {
-            return ipeRect;
+        StringWriter sw = new StringWriter();
+        try {
+            new IpeWriter(sw).writeRectangle(x, y, w, h, labelText, color, province);
+        } catch (IOException ex) {
+            //cannot happen for a StringWriter
+            Logger.getLogger(IpeExporter.class.getName()).log(Level.SEVERE, null, ex);
         }
-        String ipeLabel = "<text size=\"small\" layer=\"text\" transformations=\"translations\" pos=\"" + outputX + " " + outputY + "\" stroke=\"black\" type=\"label\" width=\"4.981\" height=\"6.42\" depth=\"0\" halign=\"center\" valign=\"center\">" + labelText + "</text>\n";
-        return ipeRect + ipeLabel;
-
+        return sw.toString();
     }
 
     /**
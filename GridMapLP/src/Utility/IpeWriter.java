@@ -0,0 +1,204 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package Utility;
+
+import java.awt.Color;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes ipe objects directly to a writer instead of building up strings.
+ * Numbers are written with at most {@link #DECIMALS} decimals through a reused
+ * buffer, such that writing does not allocate per number.
+ *
+ * @author msondag
+ */
+public class IpeWriter implements Closeable {
+
+    /**
+     * Amount of decimals written for each number.
+     */
+    public static final int DECIMALS = 6;
+    private static final long SCALE = 1000000;
+    /**
+     * Numbers at least this large are written with Double.toString.
+     */
+    private static final double MAX_FIXED = 1e12;
+
+    private final Writer out;
+    /**
+     * Buffer a single number is formatted in.
+     */
+    private final char[] numberBuffer = new char[32];
+
+    public IpeWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Opens a buffered writer to {@code path}. The output is gzipped if the
+     * file name ends with ".gz".
+     *
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public static IpeWriter open(Path path) throws IOException {
+        OutputStream os = Files.newOutputStream(path);
+        if (path.getFileName().toString().endsWith(".gz")) {
+            os = new GZIPOutputStream(os, 1 << 16);
+        }
+        return new IpeWriter(new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), 1 << 16));
+    }
+
+    public IpeWriter write(String s) throws IOException {
+        out.write(s);
+        return this;
+    }
+
+    public IpeWriter write(char c) throws IOException {
+        out.write(c);
+        return this;
+    }
+
+    /**
+     * Writes {@code value} in fixed point notation, without trailing zeros.
+     *
+     * @param value
+     * @return
+     * @throws IOException
+     */
+    public IpeWriter writeNumber(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= MAX_FIXED) {
+            out.write(Double.toString(value));
+            return this;
+        }
+        long scaled = Math.round(Math.abs(value) * SCALE);
+        long integer = scaled / SCALE;
+        long fraction = scaled % SCALE;
+
+        //fill the buffer from the back
+        int pos = numberBuffer.length;
+        if (fraction != 0) {
+            int decimals = DECIMALS;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                decimals--;
+            }
+            for (int i = 0; i < decimals; i++) {
+                numberBuffer[--pos] = (char) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            numberBuffer[--pos] = '.';
+        }
+        do {
+            numberBuffer[--pos] = (char) ('0' + integer % 10);
+            integer /= 10;
+        } while (integer != 0);
+        if (value < 0 && scaled != 0) {
+            numberBuffer[--pos] = '-';
+        }
+        out.write(numberBuffer, pos, numberBuffer.length - pos);
+        return this;
+    }
+
+    /**
+     * Writes "x y " followed by the path operator and a newline.
+     */
+    private void writePoint(double x, double y, String operator) throws IOException {
+        writeNumber(x).write(' ').writeNumber(y).write(' ').write(operator).write('\n');
+    }
+
+    /**
+     * Writes the opening tag of a filled path.
+     */
+    private void writePathStart(Color color, String province) throws IOException {
+        write("<path layer=\"").write(province).write("\" stroke=\"black\" fill=\"");
+        writeNumber(color.getRed() / 255.0).write(' ');
+        writeNumber(color.getGreen() / 255.0).write(' ');
+        writeNumber(color.getBlue() / 255.0).write("\">\n");
+    }
+
+    /**
+     * Writes a small label centered at (x,y).
+     */
+    private void writeLabel(double x, double y, String labelText) throws IOException {
+        write("<text size=\"small\" layer=\"text\" transformations=\"translations\" pos=\"");
+        writeNumber(x).write(' ').writeNumber(y);
+        write("\" stroke=\"black\" type=\"label\" width=\"4.981\" height=\"6.42\" depth=\"0\" halign=\"center\" valign=\"center\">");
+        write(labelText).write("</text>\n");
+    }
+
+    /**
+     * Draw a single hexagon
+     *
+     * @param centerX
+     * @param centerY
+     * @param sideLength
+     * @param labelText
+     * @param color
+     * @param province
+     * @throws IOException
+     */
+    public void writeHexagon(double centerX, double centerY, double sideLength, String labelText, Color color, String province) throws IOException {
+        double halfWidth = 0.5 * Math.sqrt(3);
+        writePathStart(color, province);
+        //bottom, bottomRight, topRight, top, topLeft, bottomLeft
+        writePoint(centerX, centerY - sideLength, "m");
+        writePoint(centerX + halfWidth, centerY - sideLength / 2, "l");
+        writePoint(centerX + halfWidth, centerY + sideLength / 2, "l");
+        writePoint(centerX, centerY + sideLength, "l");
+        writePoint(centerX - halfWidth, centerY + sideLength / 2, "l");
+        writePoint(centerX - halfWidth, centerY - sideLength / 2, "l");
+        write("h\n</path>\n");
+
+        if (!"".equals(labelText)) {
+            writeLabel(centerX, centerY, labelText);
+        }
+    }
+
+    /**
+     * Draw a single rectangle.
+     *
+     * @param x
+     * @param y
+     * @param w
+     * @param h
+     * @param labelText
+     * @param color
+     * @param province
+     * @throws IOException
+     */
+    public void writeRectangle(double x, double y, double w, double h, String labelText, Color color, String province) throws IOException {
+        writePathStart(color, province);
+        writePoint(x, y + h, "m");
+        writePoint(x, y, "l");
+        writePoint(x + w, y, "l");
+        writePoint(x + w, y + h, "l");
+        write("h\n</path>\n");
+
+        if (!"".equals(labelText)) {
+            writeLabel(x + w / 2.0, y + h / 2.0, labelText);
+        }
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
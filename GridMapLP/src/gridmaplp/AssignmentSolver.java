@@ -0,0 +1,291 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gridmaplp;
+
+import java.util.Arrays;
+
+/**
+ * Exact solver for the assignment problem on a dense cost matrix. Uses the
+ * shortest augmenting path method of Jonker and Volgenant with dual
+ * potentials, O(n^3) time and O(n^2) memory for the cost matrix only.
+ *
+ * Rows are sites, columns are cells. If there are more columns than rows the
+ * problem is padded to a square one with zero-cost dummy rows, such that every
+ * row is assigned to exactly one column and every column to at most one real
+ * row.
+ *
+ * The solver can be warm started from a previous assignment and the column
+ * potentials of a previous solve. Only rows whose previous assignment is no
+ * longer optimal under those potentials are augmented again.
+ *
+ * @author msondag
+ */
+public class AssignmentSolver {
+
+    /**
+     * Amount of real rows, and the size of the padded square problem.
+     */
+    final int rows, size;
+    /**
+     * Row-major cost matrix of rows*size entries.
+     */
+    final double[] cost;
+
+    /**
+     * Dual potential per (padded) row. size+1 entries, the last one belongs to
+     * the virtual row used during augmentation.
+     */
+    double[] rowPotential;
+    /**
+     * Dual potential per column. size+1 entries, the last one belongs to the
+     * virtual column used during augmentation.
+     */
+    double[] columnPotential;
+
+    /**
+     * Column each row is assigned to, -1 if unassigned.
+     */
+    int[] rowAssignment;
+    /**
+     * Row each column is assigned to, -1 if unassigned. The last entry is the
+     * virtual column.
+     */
+    int[] columnAssignment;
+
+    /**
+     * Reduced costs below this value are considered to be zero when reusing a
+     * previous assignment.
+     */
+    private static final double TIGHTNESS_TOLERANCE = 1e-9;
+
+    /**
+     * Amount of real rows that were augmented in the last solve.
+     */
+    int augmentedRows = 0;
+
+    //work arrays for the augmenting path search, reused between rows
+    private double[] minReducedCost;
+    private int[] previousColumn;
+    private boolean[] visited;
+
+    /**
+     * Sets up a solver for a {@code rows} by {@code columns} cost matrix.
+     *
+     * @param cost    row-major cost matrix, {@code cost[r * columns + c]} is
+     *                the cost of assigning row r to column c
+     * @param rows
+     * @param columns must be at least {@code rows}
+     */
+    public AssignmentSolver(double[] cost, int rows, int columns) {
+        if (rows > columns) {
+            throw new IllegalArgumentException("Cannot assign " + rows + " sites to " + columns + " cells");
+        }
+        if (cost.length != rows * columns) {
+            throw new IllegalArgumentException("Cost matrix has " + cost.length + " entries, expected " + (rows * columns));
+        }
+        this.cost = cost;
+        this.rows = rows;
+        this.size = columns;
+
+        rowPotential = new double[size + 1];
+        columnPotential = new double[size + 1];
+        rowAssignment = new int[size];
+        columnAssignment = new int[size + 1];
+        Arrays.fill(rowAssignment, -1);
+        Arrays.fill(columnAssignment, -1);
+
+        minReducedCost = new double[size + 1];
+        previousColumn = new int[size + 1];
+        visited = new boolean[size + 1];
+    }
+
+    /**
+     * Solves the assignment problem from scratch and returns the total cost of
+     * the real rows.
+     *
+     * @return
+     */
+    public double solve() {
+        for (int r = 0; r < size; r++) {
+            augment(r);
+        }
+        augmentedRows = rows;
+        updateRowAssignment();
+        return getCost();
+    }
+
+    /**
+     * Solves the assignment problem starting from a previous solution and
+     * returns the total cost of the real rows.
+     *
+     * Row potentials are set to the smallest reduced cost of the row, which
+     * makes the potentials dual feasible for any column potentials. A previous
+     * pair is kept if it is tight under these potentials, which holds for all
+     * rows whose costs did not change. All other rows are augmented, after
+     * which the assignment is optimal again.
+     *
+     * @param previousAssignment     For each real row the previously
+     *                               assigned column, or -1 if unknown.
+     * @param previousColumnPotential Column potential for each column, 0 for
+     *                               columns that are new.
+     * @return
+     */
+    public double solve(int[] previousAssignment, double[] previousColumnPotential) {
+        System.arraycopy(previousColumnPotential, 0, columnPotential, 0, size);
+
+        //make the potentials dual feasible
+        for (int r = 0; r < size; r++) {
+            double min = Double.POSITIVE_INFINITY;
+            for (int c = 0; c < size; c++) {
+                min = Math.min(min, cost(r, c) - columnPotential[c]);
+            }
+            rowPotential[r] = min;
+        }
+
+        //keep the previous pairs that are still tight
+        boolean[] assigned = new boolean[size];
+        for (int r = 0; r < rows; r++) {
+            int c = previousAssignment[r];
+            if (c < 0 || columnAssignment[c] != -1) {
+                continue;
+            }
+            if (cost(r, c) - rowPotential[r] - columnPotential[c] <= TIGHTNESS_TOLERANCE) {
+                columnAssignment[c] = r;
+                assigned[r] = true;
+            }
+        }
+
+        //repair the rest. Dummy rows were not stored, these are always repaired.
+        augmentedRows = 0;
+        for (int r = 0; r < size; r++) {
+            if (!assigned[r]) {
+                augment(r);
+                if (r < rows) {
+                    augmentedRows++;
+                }
+            }
+        }
+        updateRowAssignment();
+        return getCost();
+    }
+
+    /**
+     * Returns the dual potential of column {@code c}. Together with the
+     * assignment this is enough to warm start a later solve.
+     *
+     * @param c
+     * @return
+     */
+    public double getColumnPotential(int c) {
+        return columnPotential[c];
+    }
+
+    /**
+     * Returns the column row {@code r} is assigned to.
+     *
+     * @param r
+     * @return
+     */
+    public int getAssignedColumn(int r) {
+        return rowAssignment[r];
+    }
+
+    /**
+     * Returns the total cost of the current assignment of the real rows.
+     *
+     * @return
+     */
+    public double getCost() {
+        double total = 0;
+        for (int r = 0; r < rows; r++) {
+            total += cost[r * size + rowAssignment[r]];
+        }
+        return total;
+    }
+
+    /**
+     * Cost of assigning row r to column c. Dummy rows have no cost.
+     */
+    private double cost(int r, int c) {
+        if (r >= rows) {
+            return 0;
+        }
+        return cost[r * size + c];
+    }
+
+    /**
+     * Assigns the currently unassigned row {@code r} by finding a shortest
+     * augmenting path in the reduced costs and flipping it. Keeps the
+     * potentials dual feasible and tight on all assigned pairs.
+     *
+     * @param r
+     */
+    void augment(int r) {
+        //the virtual column holds the row we are augmenting from
+        int virtual = size;
+        columnAssignment[virtual] = r;
+        Arrays.fill(minReducedCost, Double.POSITIVE_INFINITY);
+        Arrays.fill(visited, false);
+
+        int column = virtual;
+        do {
+            visited[column] = true;
+            int row = columnAssignment[column];
+            double rowP = rowPotential[row];
+            double delta = Double.POSITIVE_INFINITY;
+            int nextColumn = -1;
+            //relax all columns not yet on the tree
+            for (int c = 0; c < size; c++) {
+                if (visited[c]) {
+                    continue;
+                }
+                double reduced = cost(row, c) - rowP - columnPotential[c];
+                if (reduced < minReducedCost[c]) {
+                    minReducedCost[c] = reduced;
+                    previousColumn[c] = column;
+                }
+                if (minReducedCost[c] < delta) {
+                    delta = minReducedCost[c];
+                    nextColumn = c;
+                }
+            }
+            if (nextColumn == -1) {
+                throw new IllegalStateException("No augmenting path for row " + r + ". Cost matrix contains invalid values.");
+            }
+            //update the potentials such that the tree stays tight
+            for (int c = 0; c <= size; c++) {
+                if (visited[c]) {
+                    rowPotential[columnAssignment[c]] += delta;
+                    columnPotential[c] -= delta;
+                } else {
+                    minReducedCost[c] -= delta;
+                }
+            }
+            column = nextColumn;
+        } while (columnAssignment[column] != -1);
+
+        //flip the augmenting path
+        do {
+            int previous = previousColumn[column];
+            columnAssignment[column] = columnAssignment[previous];
+            column = previous;
+        } while (column != virtual);
+        columnAssignment[virtual] = -1;
+    }
+
+    /**
+     * Derives the row assignment from the column assignment.
+     */
+    void updateRowAssignment() {
+        Arrays.fill(rowAssignment, -1);
+        for (int c = 0; c < size; c++) {
+            int r = columnAssignment[c];
+            if (r != -1) {
+                rowAssignment[r] = c;
+            }
+        }
+    }
+}
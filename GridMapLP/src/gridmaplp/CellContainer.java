@@ -6,9 +6,15 @@
 package gridmaplp;
 
 import Utility.IpeExporter;
+import Utility.IpeWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  *
@@ -20,6 +26,10 @@ public class CellContainer {
      * All cells that are in the gridmap
      */
     ArrayList<Cell> cells = new ArrayList();
+    /**
+     * For each partition label, the cells in that partition.
+     */
+    HashMap<String, List<Cell>> cellsByLabel = new HashMap();
 
     /**
      * Generate the container by adding a cell for each MosaicCell.
@@ -30,16 +40,52 @@ public class CellContainer {
         addCells(cellMap.getAllMosaicCells());
     }
 
+    /**
+     * Returns the gridmap as an ipe document. Use
+     * {@link #writeIpe(Path, boolean)} for large maps.
+     *
+     * @param useHexTiles
+     * @return
+     */
     public String toIpe(boolean useHexTiles) {
-        String ipeString = "";
+        StringWriter sw = new StringWriter();
+        try {
+            writeIpe(new IpeWriter(sw), useHexTiles);
+        } catch (IOException ex) {
+            //cannot happen for a StringWriter
+            Logger.getLogger(CellContainer.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return sw.toString();
+    }
 
-        
+    /**
+     * Writes the gridmap as an ipe document to {@code outputPath}, gzipped if
+     * the path ends with ".gz".
+     *
+     * @param outputPath
+     * @param useHexTiles
+     * @throws IOException
+     */
+    public void writeIpe(Path outputPath, boolean useHexTiles) throws IOException {
+        try (IpeWriter writer = IpeWriter.open(outputPath)) {
+            writeIpe(writer, useHexTiles);
+        }
+    }
+
+    /**
+     * Streams the gridmap as an ipe document to {@code writer}.
+     *
+     * @param writer
+     * @param useHexTiles
+     * @throws IOException
+     */
+    public void writeIpe(IpeWriter writer, boolean useHexTiles) throws IOException {
         //Gradient is deprecated due to visual artifacts in rendering in pdf viewers.
 //        //sets the gradient and assigns a symbol to each cell
 //        String gradientPreamble = getGradientString(cellArray);
 //        //set the preamble
 //        String ipeString = IpeExporter.getPreamble(gradientPreamble);
-        ipeString = IpeExporter.getPreambleNoStart();
+        writer.write(IpeExporter.getPreambleNoStart());
 
         //groups the provinces together if present
         HashMap<String, List<Cell>> provinceGrouping = new HashMap();
@@ -53,25 +99,27 @@ public class CellContainer {
             provinceGrouping.put(province, provinceList);
         }
 
-        ipeString += "<page>\n";
-        ipeString += "<layer name=\"text\">\n";
-        String layers = "text ";
+        writer.write("<page>\n");
+        writer.write("<layer name=\"text\">\n");
         for (String province : provinceGrouping.keySet()) {
-            ipeString += "<layer name=\"" + province + "\">\n";
-            layers += province + " ";
+            writer.write("<layer name=\"").write(province).write("\">\n");
         }
 
-        ipeString += "<view layers=\"" + layers + "\" active=\"noProvince\">\n";
+        writer.write("<view layers=\"text ");
+        for (String province : provinceGrouping.keySet()) {
+            writer.write(province).write(' ');
+        }
+        writer.write("\" active=\"noProvince\">\n");
         for (String province : provinceGrouping.keySet()) {
             for (Cell cell : provinceGrouping.get(province)) {
                 double x = cell.mosaicCell.x;
                 double y = cell.mosaicCell.y;
                 if (useHexTiles) {
-                    ipeString += IpeExporter.getHexagon(x, y, cellSize,
-                                                        cell.label, cell.color, province);
+                    writer.writeHexagon(x, y, cellSize,
+                                        cell.label, cell.color, province);
                 } else {
-                    ipeString += IpeExporter.getRectangle(x * cellSize, y * cellSize, cellSize, cellSize,
-                                                          cell.label, cell.color, province);
+                    writer.writeRectangle(x * cellSize, y * cellSize, cellSize, cellSize,
+                                          cell.label, cell.color, province);
                 }
             }
         }
@@ -79,14 +127,19 @@ public class CellContainer {
 //        for (Cell c : cellArray) {
 //            ipeString += c.toGradientIpe() + "\n";
 //        }
-        ipeString += IpeExporter.endIpe();
-        return ipeString;
+        writer.write(IpeExporter.endIpe());
     }
 
     private void addCells(List<MosaicCell> coordinates) {
         for (MosaicCell c : coordinates) {
             Cell cell = new Cell(c);
             cells.add(cell);
+            List<Cell> labelCells = cellsByLabel.get(c.label);
+            if (labelCells == null) {
+                labelCells = new ArrayList();
+                cellsByLabel.put(c.label, labelCells);
+            }
+            labelCells.add(cell);
         }
     }
 
@@ -98,12 +151,6 @@ public class CellContainer {
      * @return
      */
     public List<Cell> getCellsByLabel(String label) {
-        ArrayList<Cell> labelCells = new ArrayList();
-        for (Cell c : cells) {
-            if (c.label.equals(label)) {
-                labelCells.add(c);
-            }
-        }
-        return labelCells;
+        return new ArrayList(cellsByLabel.getOrDefault(label, new ArrayList()));
     }
 }
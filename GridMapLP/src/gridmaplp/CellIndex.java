@@ -0,0 +1,197 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gridmaplp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Spatial index over the centroids of a set of cells. Cells are stored in a
+ * uniform grid of buckets, nearest cell queries search the buckets in rings
+ * around the query point.
+ *
+ * @author msondag
+ */
+class CellIndex {
+
+    /**
+     * Indexed cells.
+     */
+    private final List<Cell> cells;
+    /**
+     * Indices of the cells, sorted on their bucket. The cells of bucket b are
+     * at positions bucketStart[b] up to bucketStart[b + 1]. Buckets are
+     * row-major.
+     */
+    private final int[] bucketCells;
+    private final int[] bucketStart;
+    /**
+     * Centroid of each cell.
+     */
+    private final double[] xs, ys;
+    private final int columns, rows;
+    private final double minX, minY;
+    private final double bucketSize;
+
+    /**
+     * Builds the index. The bucket size is chosen such that a bucket holds
+     * about one cell.
+     *
+     * @param cells
+     */
+    public CellIndex(List<Cell> cells) {
+        this.cells = cells;
+
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (Cell c : cells) {
+            minX = Math.min(minX, c.mosaicCell.x);
+            minY = Math.min(minY, c.mosaicCell.y);
+            maxX = Math.max(maxX, c.mosaicCell.x);
+            maxY = Math.max(maxY, c.mosaicCell.y);
+        }
+        if (cells.isEmpty()) {
+            minX = minY = maxX = maxY = 0;
+        }
+        this.minX = minX;
+        this.minY = minY;
+
+        double width = maxX - minX;
+        double height = maxY - minY;
+        double size = Math.sqrt(width * height / Math.max(1, cells.size()));
+        if (size <= 0) {
+            //all cells on a line
+            size = Math.max(width, height) / Math.max(1, cells.size());
+        }
+        if (size <= 0) {
+            size = 1;
+        }
+        bucketSize = size;
+        columns = (int) (width / bucketSize) + 1;
+        rows = (int) (height / bucketSize) + 1;
+
+        xs = new double[cells.size()];
+        ys = new double[cells.size()];
+        int[] bucket = new int[cells.size()];
+        bucketStart = new int[columns * rows + 1];
+        for (int i = 0; i < cells.size(); i++) {
+            Cell c = cells.get(i);
+            xs[i] = c.mosaicCell.x;
+            ys[i] = c.mosaicCell.y;
+            int bx = (int) ((xs[i] - minX) / bucketSize);
+            int by = (int) ((ys[i] - minY) / bucketSize);
+            bucket[i] = by * columns + bx;
+            bucketStart[bucket[i] + 1]++;
+        }
+        for (int b = 0; b < columns * rows; b++) {
+            bucketStart[b + 1] += bucketStart[b];
+        }
+        bucketCells = new int[cells.size()];
+        int[] filled = Arrays.copyOf(bucketStart, columns * rows);
+        for (int i = 0; i < cells.size(); i++) {
+            bucketCells[filled[bucket[i]]++] = i;
+        }
+    }
+
+    /**
+     * Returns the indices of the {@code k} cells closest to {@code c}, closest
+     * first.
+     *
+     * @param c
+     * @param k
+     * @return
+     */
+    public List<Integer> nearest(Coordinate c, int k) {
+        k = Math.min(k, cells.size());
+        //furthest candidate on top
+        PriorityQueue<Integer> closest = new PriorityQueue<>(k + 1,
+                (Integer i1, Integer i2) -> Double.compare(cells.get(i2).squaredDistance(c), cells.get(i1).squaredDistance(c)));
+        if (k == 0) {
+            return new ArrayList();
+        }
+
+        //bucket of the query point, may lie outside of the grid
+        int bx = (int) Math.floor((c.x - minX) / bucketSize);
+        int by = (int) Math.floor((c.y - minY) / bucketSize);
+        int maxRing = Math.max(Math.max(Math.abs(bx), Math.abs(columns - bx)), Math.max(Math.abs(by), Math.abs(rows - by)));
+
+        for (int ring = 0; ring <= maxRing; ring++) {
+            if (closest.size() == k) {
+                //everything in this ring is at least (ring - 1) buckets away
+                double bound = Math.max(0, ring - 1) * bucketSize;
+                if (bound * bound > cells.get(closest.peek()).squaredDistance(c)) {
+                    break;
+                }
+            }
+            for (int y = by - ring; y <= by + ring; y++) {
+                if (y < 0 || y >= rows) {
+                    continue;
+                }
+                //only the boundary of the ring, the inside was done before
+                int step = (y == by - ring || y == by + ring) ? 1 : Math.max(1, 2 * ring);
+                for (int x = bx - ring; x <= bx + ring; x += step) {
+                    if (x < 0 || x >= columns) {
+                        continue;
+                    }
+                    for (int b = bucketStart[y * columns + x]; b < bucketStart[y * columns + x + 1]; b++) {
+                        closest.add(bucketCells[b]);
+                        if (closest.size() > k) {
+                            closest.poll();
+                        }
+                    }
+                }
+            }
+        }
+
+        List<Integer> result = new ArrayList(closest);
+        Collections.sort(result, (Integer i1, Integer i2) -> Double.compare(cells.get(i1).squaredDistance(c), cells.get(i2).squaredDistance(c)));
+        return result;
+    }
+
+    /**
+     * Returns the index of the cell with the smallest squared distance to
+     * {@code c} minus its weight. The weights must be at most 0, such that
+     * only the cells closer than the weighted distance of cell {@code start}
+     * have to be searched. A good start, for example the answer of a
+     * previous query with similar weights, keeps the search small.
+     *
+     * @param c
+     * @param weight
+     * @param start
+     * @return
+     */
+    public int nearestWeighted(Coordinate c, double[] weight, int start) {
+        int best = start;
+        double bestDistance = squaredDistance(start, c) - weight[start];
+        double radius = Math.sqrt(bestDistance);
+        int fromX = Math.max(0, (int) Math.floor((c.x - radius - minX) / bucketSize));
+        int toX = Math.min(columns - 1, (int) Math.floor((c.x + radius - minX) / bucketSize));
+        int fromY = Math.max(0, (int) Math.floor((c.y - radius - minY) / bucketSize));
+        int toY = Math.min(rows - 1, (int) Math.floor((c.y + radius - minY) / bucketSize));
+        if (fromX > toX) {
+            return best;
+        }
+        for (int y = fromY; y <= toY; y++) {
+            //the buckets of a row are consecutive
+            for (int b = bucketStart[y * columns + fromX]; b < bucketStart[y * columns + toX + 1]; b++) {
+                int i = bucketCells[b];
+                double distance = squaredDistance(i, c) - weight[i];
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    best = i;
+                }
+            }
+        }
+        return best;
+    }
+
+    private double squaredDistance(int i, Coordinate c) {
+        return (xs[i] - c.x) * (xs[i] - c.x) + (ys[i] - c.y) * (ys[i] - c.y);
+    }
+}
@@ -10,7 +10,13 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.cli.CommandLine;
@@ -45,19 +51,57 @@ public class GridMapLP {
     private CellContainer grid;
     private MosaicCellMap mosaicCellMap;
     private SiteMap siteMap;
-    private LinearProgram lp;
     private boolean useHexTiles = false;
+    private LinearProgram.Solver solver = LinearProgram.Solver.HUNGARIAN;
+    /**
+     * Amount of components that are solved concurrently.
+     */
+    private int threads = 1;
+
+    /**
+     * Gridmap output and duals of a previous run to warm start from. Null if
+     * not used.
+     */
+    private Path previousPath = null;
+    private Path previousDualsPath = null;
+    /**
+     * Where the duals of this run are written to. Null if not used.
+     */
+    private Path dualsOutputPath = null;
 
     public GridMapLP(String[] args) throws IOException {
         parseArguments(args);
         //cellmap holds the centroids and cell coordinates for each square/hex in the input
         mosaicCellMap = new MosaicCellMap(inputMapPath);
+        siteMap = new SiteMap(sitePath);
+        run();
+    }
+
+    /**
+     * Computes the gridmap for a mosaic map and sites that are already in
+     * memory, and writes it to {@code outputPath}.
+     *
+     * @param mosaicCellMap
+     * @param siteMap
+     * @param outputPath
+     * @param provinceMapping
+     * @param useHexTiles
+     * @throws IOException
+     */
+    public GridMapLP(MosaicCellMap mosaicCellMap, SiteMap siteMap, Path outputPath, Path provinceMapping, boolean useHexTiles) throws IOException {
+        this.mosaicCellMap = mosaicCellMap;
+        this.siteMap = siteMap;
+        this.outputPath = outputPath;
+        this.provinceMapping = provinceMapping;
+        this.useHexTiles = useHexTiles;
+        run();
+    }
+
+    private void run() throws IOException {
         //make a grid that fits all squares/hex on the map. 
         //Each cell in the gridmap is linked to a mosaicCell.
         grid = new CellContainer(mosaicCellMap);
 
-        siteMap = new SiteMap(sitePath);
-
         //check if the amount of sites matches with the amount of mosaic maps
         //does not check if this is correct per region, that can be done later.
         checkMosaicCellCount();
@@ -70,17 +114,17 @@ public class GridMapLP {
         addProvinces();
 
         //go through each region on the map with the same label (component), and assign each site in the region to a cell in the component.
-        for (Component cm : getComponents()) {
-            lp = new LinearProgram(cm);
-            lp.solveLP();
+        List<LinearProgram> lps = createLinearPrograms(getComponents());
+        solveComponents(lps);
+        if (dualsOutputPath != null) {
+            WarmStart.writePotentials(dualsOutputPath, lps);
         }
         //check all sites assigned. Makes sure we don't have regions with too little assignments.
         //regions with too much assignment are automatically caught by checkMosaicCellsCount() now.
         checkSites();
 
         //write the grid to ipe.
-        String outputString = grid.toIpe(useHexTiles);
-        Files.writeString(outputPath, outputString);
+        grid.writeIpe(outputPath, useHexTiles);
     }
 
     private void parseArguments(String[] args) {
@@ -91,11 +135,11 @@ public class GridMapLP {
         Options options = new Options();
 
         //input specifiers
-        Option mapOption = new Option("m", "inputMosaicMap", true, "input Ipe file of the mosaic map. Each tile must have a label");
+        Option mapOption = new Option("m", "inputMosaicMap", true, "input Ipe file of the mosaic map. Each tile must have a label. Can also be the tile centers in the binary interchange format");
         mapOption.setRequired(true);
         options.addOption(mapOption);
 
-        Option siteOption = new Option("s", "sites", true, "Input file of sites. (parentLabel,label,x,y,red,green,blue) files format and tab seperated");
+        Option siteOption = new Option("s", "sites", true, "Input file of sites. (parentLabel,label,x,y,red,green,blue) files format and tab seperated, or sites in the binary interchange format");
         siteOption.setRequired(true);
         options.addOption(siteOption);
 
@@ -107,6 +151,34 @@ public class GridMapLP {
         tileOption.setRequired(false);
         options.addOption(tileOption);
 
+        Option solverOption = new Option("solver", "solver", true, "Backend used to assign sites to cells: hungarian (default), clp, column_generation, hierarchical or min_cost_flow");
+        solverOption.setRequired(false);
+        options.addOption(solverOption);
+
+        Option threadOption = new Option("threads", "threads", true, "Amount of components that are solved concurrently. Default 1");
+        threadOption.setRequired(false);
+        options.addOption(threadOption);
+
+        Option leafSizeOption = new Option("leafSize", "leafSize", true, "Maximum amount of sites solved exactly by the hierarchical solver. Default 1000");
+        leafSizeOption.setRequired(false);
+        options.addOption(leafSizeOption);
+
+        Option previousOption = new Option("previous", "previous", true, "Gridmap output of a previous run to warm start from. Requires -previousDuals");
+        previousOption.setRequired(false);
+        options.addOption(previousOption);
+
+        Option previousDualsOption = new Option("previousDuals", "previousDuals", true, "Duals file written by the previous run with -dualsOutput");
+        previousDualsOption.setRequired(false);
+        options.addOption(previousDualsOption);
+
+        Option dualsOutputOption = new Option("dualsOutput", "dualsOutput", true, "Location to write the duals of this run to, for warm starting later runs");
+        dualsOutputOption.setRequired(false);
+        options.addOption(dualsOutputOption);
+
+        Option provincesOption = new Option("provinces", "provinces", true, "Mapping of site labels to provinces. Default ../Data/maps/Sites/provinceMapping.tsv");
+        provincesOption.setRequired(false);
+        options.addOption(provincesOption);
+
         CommandLineParser parser = new DefaultParser();
         CommandLine cmd = null;
 
@@ -121,6 +193,23 @@ public class GridMapLP {
         outputPath = Paths.get(cmd.getOptionValue("output"));
 
         useHexTiles = cmd.hasOption("hex");
+        solver = LinearProgram.Solver.valueOf(cmd.getOptionValue("solver", "hungarian").toUpperCase());
+        threads = Integer.parseInt(cmd.getOptionValue("threads", "1"));
+        if (cmd.hasOption("leafSize")) {
+            LinearProgram.LEAF_SIZE = Integer.parseInt(cmd.getOptionValue("leafSize"));
+        }
+        if (cmd.hasOption("previous")) {
+            previousPath = Paths.get(cmd.getOptionValue("previous"));
+        }
+        if (cmd.hasOption("previousDuals")) {
+            previousDualsPath = Paths.get(cmd.getOptionValue("previousDuals"));
+        }
+        if (cmd.hasOption("dualsOutput")) {
+            dualsOutputPath = Paths.get(cmd.getOptionValue("dualsOutput"));
+        }
+        if (cmd.hasOption("provinces")) {
+            provinceMapping = Paths.get(cmd.getOptionValue("provinces"));
+        }
     }
 
     /**
@@ -135,15 +224,97 @@ public class GridMapLP {
 
     }
 
+    /**
+     * Sets up a linear program for each component, warm started from the
+     * previous run if there is one.
+     *
+     * @param components
+     * @return
+     * @throws IOException
+     */
+    private List<LinearProgram> createLinearPrograms(List<Component> components) throws IOException {
+        WarmStart warmStart = null;
+        if (previousPath != null && previousDualsPath != null) {
+            if (solver == LinearProgram.Solver.HUNGARIAN) {
+                warmStart = new WarmStart(previousPath, previousDualsPath, useHexTiles);
+            } else {
+                System.err.println("Warm starting is only supported by the hungarian solver. Solving from scratch.");
+            }
+        }
+
+        List<LinearProgram> lps = new ArrayList();
+        for (Component cm : components) {
+            LinearProgram lp = new LinearProgram(cm, solver);
+            lp.setWarmStart(warmStart);
+            lps.add(lp);
+        }
+        return lps;
+    }
+
+    /**
+     * Assigns the sites of each component to its cells. Components are
+     * independent, so with more than one thread they are solved concurrently
+     * on a bounded pool. The assignments are written into the cells in
+     * component order afterwards. If a component cannot be solved, its
+     * exception is rethrown and no gridmap is written.
+     *
+     * @param lps
+     */
+    private void solveComponents(List<LinearProgram> lps) {
+        if (threads <= 1 || lps.size() <= 1) {
+            for (LinearProgram lp : lps) {
+                lp.solveLP();
+            }
+            return;
+        }
+
+        //start with the largest components such that they do not end up last on a single thread
+        List<LinearProgram> scheduleOrder = new ArrayList(lps);
+        scheduleOrder.sort((LinearProgram lp1, LinearProgram lp2) -> Integer.compare(lp2.component.cells.size(), lp1.component.cells.size()));
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, lps.size()));
+        List<Future<Double>> results = new ArrayList();
+        for (LinearProgram lp : scheduleOrder) {
+            results.add(pool.submit(() -> lp.solve()));
+        }
+        try {
+            for (Future<Double> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while solving the components", ex);
+        } catch (ExecutionException ex) {
+            //fail like the single threaded case instead of writing a gridmap with unassigned sites
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException("Could not solve a component", ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        //merge the results
+        for (LinearProgram lp : lps) {
+            lp.applyAssignment();
+        }
+    }
+
     /**
      * For each partition region, return a component of the cells associated to
-     * the region and the sites in the region.
+     * the region and the sites in the region. Components are ordered by label.
      *
      * @return
      */
     private List<Component> getComponents() {
-        List<Component> componentList = new ArrayList();
+        List<String> labels = new ArrayList();
         for (String label : mosaicCellMap.getLabels()) {
+            labels.add(label);
+        }
+        Collections.sort(labels);
+
+        List<Component> componentList = new ArrayList();
+        for (String label : labels) {
             List<Cell> cells = grid.getCellsByLabel(label);
             List<Site> sites = siteMap.get(label);
 
@@ -158,23 +329,36 @@ public class GridMapLP {
      * multiple cells.
      */
     private void checkSites() {
-        List<String> labelsAssigned = new ArrayList();
+        //amount of cells each label is assigned to
+        HashMap<String, Integer> labelsAssigned = new HashMap();
         for (Cell c : grid.cells) {
             String label = c.label;
-            if (label != "") {
-                labelsAssigned.add(label);
-
+            if (!"".equals(label)) {
+                labelsAssigned.put(label, labelsAssigned.getOrDefault(label, 0) + 1);
             }
         }
+        //amount of cells of each label that are matched to a site
+        HashMap<String, Integer> labelsMatched = new HashMap();
         for (Site s : siteMap.getAllSites()) {
-            if (!labelsAssigned.contains(s.label)) {
+            int count = labelsAssigned.getOrDefault(s.label, 0);
+            if (count == 0) {
                 System.err.println("Error: site " + s.label + "is not assigned a gridcell");
+                continue;
             }
-            labelsAssigned.remove(s.label);
+            labelsAssigned.put(s.label, count - 1);
+            labelsMatched.put(s.label, labelsMatched.getOrDefault(s.label, 0) + 1);
         }
-        if (!labelsAssigned.isEmpty()) {
-            for (String s : labelsAssigned) {
-                System.err.println("Error: " + s + " is assigned multiple cells.");
+        //the first cells of a label are matched, the remaining ones are reported in cell order
+        for (Cell c : grid.cells) {
+            String label = c.label;
+            if ("".equals(label)) {
+                continue;
+            }
+            int matched = labelsMatched.getOrDefault(label, 0);
+            if (matched > 0) {
+                labelsMatched.put(label, matched - 1);
+            } else {
+                System.err.println("Error: " + label + " is assigned multiple cells.");
             }
         }
 
@@ -200,12 +384,8 @@ public class GridMapLP {
             String siteLabel = split[0];
             String province = split[1];
 
-            for (String parent : siteMap.siteMapping.keySet()) {
-                for (Site s : siteMap.siteMapping.get(parent)) {
-                    if (s.label.equals(siteLabel)) {
-                        s.province = province;
-                    }
-                }
+            for (Site s : siteMap.getSitesByLabel(siteLabel)) {
+                s.province = province;
             }
         }
     }
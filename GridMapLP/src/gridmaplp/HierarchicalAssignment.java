@@ -0,0 +1,329 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gridmaplp;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Approximate assignment for components that are too large to solve as a
+ * single assignment problem. The sites and cells are split recursively along
+ * the longest side of their bounding box, with a balanced amount of sites and
+ * cells on each side, until at most {@code leafSize} sites remain. The pieces
+ * are solved exactly and in parallel. Afterwards a bounded local search swaps
+ * sites between nearby cells, which repairs most of the cost lost along the
+ * seams between pieces.
+ *
+ * The dual potentials of the cells in the pieces are the starting point of a
+ * Lagrangian lower bound on the optimal cost, which bounds the gap of the
+ * assignment.
+ *
+ * @author msondag
+ */
+class HierarchicalAssignment {
+
+    /**
+     * Amount of nearby cells considered for a swap per site.
+     */
+    private static final int SWAP_NEIGHBOURS = 8;
+    /**
+     * Maximum amount of passes of the local search.
+     */
+    private static final int MAX_PASSES = 20;
+    /**
+     * Maximum amount of subgradient steps of the lower bound.
+     */
+    private static final int BOUND_ROUNDS = 500;
+    /**
+     * Amount of steps without improvement after which the step size is
+     * halved.
+     */
+    private static final int STALL_ROUNDS = 10;
+
+    private final List<Site> sites;
+    private final List<Cell> cells;
+    private final int leafSize;
+
+    /**
+     * Cell index assigned to each site index.
+     */
+    int[] assignment;
+    /**
+     * Potential of each cell in the lower bound, at most 0. Starts as the dual
+     * potential of the cell in the piece that holds it.
+     */
+    private double[] cellPotential;
+    /**
+     * Lower bound on the optimal cost.
+     */
+    double lowerBound;
+
+    public HierarchicalAssignment(List<Site> sites, List<Cell> cells, int leafSize) {
+        this.sites = sites;
+        this.cells = cells;
+        this.leafSize = Math.max(1, leafSize);
+    }
+
+    /**
+     * Computes the assignment and returns its cost.
+     *
+     * @return
+     */
+    public double solve() {
+        assignment = new int[sites.size()];
+        cellPotential = new double[cells.size()];
+
+        int[] siteIndices = new int[sites.size()];
+        for (int i = 0; i < siteIndices.length; i++) {
+            siteIndices[i] = i;
+        }
+        int[] cellIndices = new int[cells.size()];
+        for (int j = 0; j < cellIndices.length; j++) {
+            cellIndices[j] = j;
+        }
+        ForkJoinPool.commonPool().invoke(new Bisection(siteIndices, cellIndices));
+
+        //nearest cells of each site, closest first. Used for the swaps and the lower bound
+        CellIndex index = new CellIndex(cells);
+        int[][] neighbours = new int[sites.size()][];
+        for (int i = 0; i < sites.size(); i++) {
+            neighbours[i] = index.nearest(sites.get(i).c, SWAP_NEIGHBOURS).stream().mapToInt(j -> j).toArray();
+        }
+
+        double cost = improve(neighbours);
+        lowerBound = computeLowerBound(index, cost);
+        System.out.println("Hierarchical assignment cost " + cost + ", lower bound " + lowerBound
+                           + ", gap at most " + (lowerBound > 0 ? (cost - lowerBound) / lowerBound * 100 : 0) + "%");
+        return cost;
+    }
+
+    /**
+     * Recursively splits the sites and cells until they can be solved exactly.
+     */
+    private class Bisection extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] siteIndices;
+        private final int[] cellIndices;
+
+        private Bisection(int[] siteIndices, int[] cellIndices) {
+            this.siteIndices = siteIndices;
+            this.cellIndices = cellIndices;
+        }
+
+        @Override
+        protected void compute() {
+            if (siteIndices.length <= leafSize) {
+                solveLeaf(siteIndices, cellIndices);
+                return;
+            }
+
+            //split perpendicular to the longest side of the cells
+            double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+            double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+            for (int j : cellIndices) {
+                MosaicCell mc = cells.get(j).mosaicCell;
+                minX = Math.min(minX, mc.x);
+                minY = Math.min(minY, mc.y);
+                maxX = Math.max(maxX, mc.x);
+                maxY = Math.max(maxY, mc.y);
+            }
+            boolean splitOnX = (maxX - minX) >= (maxY - minY);
+
+            Integer[] sortedSites = sort(siteIndices, splitOnX,
+                                         (Integer i) -> sites.get(i).c.x, (Integer i) -> sites.get(i).c.y);
+            Integer[] sortedCells = sort(cellIndices, splitOnX,
+                                         (Integer j) -> cells.get(j).mosaicCell.x, (Integer j) -> cells.get(j).mosaicCell.y);
+
+            //equal amount of sites per side, and cells in the same proportion
+            int n = sortedSites.length;
+            int m = sortedCells.length;
+            int sitesLeft = n / 2;
+            int cellsLeft = (int) Math.round((double) m * sitesLeft / n);
+            cellsLeft = Math.max(sitesLeft, Math.min(cellsLeft, m - (n - sitesLeft)));
+
+            invokeAll(new Bisection(toArray(sortedSites, 0, sitesLeft), toArray(sortedCells, 0, cellsLeft)),
+                      new Bisection(toArray(sortedSites, sitesLeft, n), toArray(sortedCells, cellsLeft, m)));
+        }
+    }
+
+    /**
+     * Sorts the indices on the primary coordinate, ties are broken on the
+     * secondary coordinate.
+     */
+    private static Integer[] sort(int[] indices, boolean onX, Coordinate1D x, Coordinate1D y) {
+        Integer[] sorted = new Integer[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            sorted[i] = indices[i];
+        }
+        Coordinate1D primary = onX ? x : y;
+        Coordinate1D secondary = onX ? y : x;
+        Arrays.sort(sorted, Comparator.comparingDouble(primary::get).thenComparingDouble(secondary::get));
+        return sorted;
+    }
+
+    private interface Coordinate1D {
+
+        double get(Integer i);
+    }
+
+    private static int[] toArray(Integer[] sorted, int from, int to) {
+        int[] array = new int[to - from];
+        for (int i = from; i < to; i++) {
+            array[i - from] = sorted[i];
+        }
+        return array;
+    }
+
+    /**
+     * Solves a piece exactly. Pieces have disjoint sites, so the writes into
+     * {@code assignment} do not conflict.
+     */
+    private void solveLeaf(int[] siteIndices, int[] cellIndices) {
+        double[] cost = new double[siteIndices.length * cellIndices.length];
+        int k = 0;
+        for (int i : siteIndices) {
+            Site s = sites.get(i);
+            for (int j : cellIndices) {
+                cost[k] = cells.get(j).squaredDistance(s.c);
+                k++;
+            }
+        }
+        AssignmentSolver as = new AssignmentSolver(cost, siteIndices.length, cellIndices.length);
+        as.solve();
+        for (int i = 0; i < siteIndices.length; i++) {
+            assignment[siteIndices[i]] = cellIndices[as.getAssignedColumn(i)];
+        }
+
+        //cells can stay empty, so their potential must be at most 0 to give a bound.
+        //The padding rows of the solver are tight on the largest potential, so the shift keeps the dual value of the piece.
+        double maxPotential = Double.NEGATIVE_INFINITY;
+        for (int j = 0; j < cellIndices.length; j++) {
+            maxPotential = Math.max(maxPotential, as.getColumnPotential(j));
+        }
+        for (int j = 0; j < cellIndices.length; j++) {
+            cellPotential[cellIndices[j]] = as.getColumnPotential(j) - maxPotential;
+        }
+    }
+
+    /**
+     * Local search. A site moves to one of its nearby cells if that cell is
+     * free and closer, or swaps with the site on that cell if it lowers the
+     * total cost. Returns the cost of the improved assignment.
+     *
+     * @param neighbours
+     * @return
+     */
+    private double improve(int[][] neighbours) {
+        int[] owner = new int[cells.size()];
+        Arrays.fill(owner, -1);
+        for (int i = 0; i < assignment.length; i++) {
+            owner[assignment[i]] = i;
+        }
+
+        int swaps = 0;
+        for (int pass = 0; pass < MAX_PASSES; pass++) {
+            int improved = 0;
+            for (int a = 0; a < sites.size(); a++) {
+                for (int j : neighbours[a]) {
+                    int ca = assignment[a];
+                    if (j == ca) {
+                        continue;
+                    }
+                    int b = owner[j];
+                    double delta = cost(a, j) - cost(a, ca);
+                    if (b != -1) {
+                        delta += cost(b, ca) - cost(b, j);
+                    }
+                    if (delta < -1e-9) {
+                        assignment[a] = j;
+                        owner[j] = a;
+                        owner[ca] = b;
+                        if (b != -1) {
+                            assignment[b] = ca;
+                        }
+                        improved++;
+                    }
+                }
+            }
+            swaps += improved;
+            if (improved == 0) {
+                break;
+            }
+        }
+        System.out.println("Local search performed " + swaps + " swaps");
+
+        double total = 0;
+        for (int i = 0; i < assignment.length; i++) {
+            total += cost(i, assignment[i]);
+        }
+        return total;
+    }
+
+    /**
+     * Lagrangian bound of the whole assignment problem, in which the cells
+     * may hold any amount of sites at a price of minus their potential.
+     * For potentials of at most 0, the sum of the potentials and the
+     * cheapest reduced cost of each site is at most the optimal cost. Starts
+     * from the cell potentials of the pieces, which are not feasible across
+     * the seams, and raises the bound by subgradient steps: cells that are
+     * cheapest for more than one site are lowered, unused cells are raised.
+     * The step size aims at {@code upperBound}.
+     *
+     * @param index
+     * @param upperBound
+     * @return
+     */
+    private double computeLowerBound(CellIndex index, double upperBound) {
+        //the cheapest cell of a site in the previous round is a good start for the search
+        int[] cheapest = Arrays.copyOf(assignment, assignment.length);
+        int[] count = new int[cells.size()];
+        double best = Double.NEGATIVE_INFINITY;
+        double scale = 1;
+        int stalled = 0;
+        for (int round = 0; round < BOUND_ROUNDS; round++) {
+            double bound = 0;
+            Arrays.fill(count, 0);
+            for (int i = 0; i < sites.size(); i++) {
+                cheapest[i] = index.nearestWeighted(sites.get(i).c, cellPotential, cheapest[i]);
+                bound += cost(i, cheapest[i]) - cellPotential[cheapest[i]];
+                count[cheapest[i]]++;
+            }
+            double norm = 0;
+            for (int j = 0; j < cells.size(); j++) {
+                bound += cellPotential[j];
+                //projected subgradient, a cell at 0 cannot be raised
+                int gradient = 1 - count[j];
+                if (gradient < 0 || cellPotential[j] < 0) {
+                    norm += gradient * gradient;
+                }
+            }
+            if (bound > best) {
+                best = bound;
+                stalled = 0;
+            } else if (++stalled == STALL_ROUNDS) {
+                scale /= 2;
+                stalled = 0;
+            }
+            if (norm == 0 || upperBound - best <= 1e-9 * upperBound) {
+                break;
+            }
+            double step = scale * (upperBound - bound) / norm;
+            for (int j = 0; j < cells.size(); j++) {
+                cellPotential[j] = Math.min(0, cellPotential[j] + step * (1 - count[j]));
+            }
+        }
+        return best;
+    }
+
+    private double cost(int site, int cell) {
+        return cells.get(cell).squaredDistance(sites.get(site).c);
+    }
+}
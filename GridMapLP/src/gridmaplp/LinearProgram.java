@@ -8,18 +8,72 @@ package gridmaplp;
 import java.util.List;
 import com.quantego.clp.*;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 /**
- * Point set matching algorithm using a linear program.
+ * Point set matching algorithm using a linear program. The matching is either
+ * solved as a linear program using CLP, or directly as an assignment problem
+ * using {@link AssignmentSolver}. All solvers give the same optimal sum of
+ * squared distances.
  *
  * @author msondag
  */
 public class LinearProgram {
 
+    /**
+     * Which backend is used to solve the matching.
+     */
+    public enum Solver {
+        /**
+         * Dense linear program with a variable for every (site,cell) pair,
+         * solved by the native CLP library.
+         */
+        CLP,
+        /**
+         * Pure java Hungarian method on a cost matrix.
+         */
+        HUNGARIAN,
+        /**
+         * Sparse linear program solved by CLP. Starts with the nearest cells of
+         * each site and adds (site,cell) pairs with a negative reduced cost
+         * until there are none left.
+         */
+        COLUMN_GENERATION,
+        /**
+         * Splits large components into pieces of at most {@link #LEAF_SIZE}
+         * sites that are solved with the Hungarian method, followed by a local
+         * search. Not guaranteed to be optimal.
+         */
+        HIERARCHICAL,
+        /**
+         * Pure java min-cost flow on a sparse network of each site and its
+         * nearby cells, with integer scaled costs. Missing pairs are priced
+         * and added until the flow is optimal.
+         */
+        MIN_COST_FLOW
+    }
+
+    /**
+     * Amount of nearest cells per site the column generation starts with.
+     */
+    public static int INITIAL_CANDIDATES = 8;
+    /**
+     * Maximum amount of sites in a piece of the hierarchical solver.
+     */
+    public static int LEAF_SIZE = 1000;
+    /**
+     * Reduced costs above minus this value are considered to be non-negative.
+     */
+    private static final double REDUCED_COST_TOLERANCE = 1e-7;
+
     //Holds the cells and sites we are going to match
     Component component;
+    Solver solver;
     CLP model;
 
     List<CLPVariable> variables = new ArrayList();
@@ -33,14 +87,41 @@ public class LinearProgram {
     //holds for each flow variable between a cell and a site, to which cite it maps
     HashMap<CLPVariable, Cell> cellMapping = new HashMap();
 
+    //previous run to start from, only used by the hungarian solver. Null for a cold start.
+    WarmStart warmStart = null;
+    //dual potential of each cell in component.cells after the hungarian solver ran
+    double[] cellPotentials = null;
+
+    //site assigned to each cell after solving
+    LinkedHashMap<Cell, Site> assignment = new LinkedHashMap();
+
+    //constraint of each site and cell. Used to get the dual values.
+    HashMap<Site, CLPConstraint> siteConstraints = new HashMap();
+    HashMap<Cell, CLPConstraint> cellConstraints = new HashMap();
+
     /**
-     * Sets up a linear program for the given component.
+     * Sets up a linear program for the given component using the default
+     * solver.
      *
      * @param component
      */
     public LinearProgram(Component component) {
+        this(component, Solver.HUNGARIAN);
+    }
+
+    /**
+     * Sets up a linear program for the given component.
+     *
+     * @param component
+     * @param solver
+     */
+    public LinearProgram(Component component, Solver solver) {
         this.component = component;
-        setupLP();
+        this.solver = solver;
+        if (solver == Solver.CLP) {
+            //the other solvers build their model when solving.
+            setupLP();
+        }
     }
 
     /**
@@ -54,6 +135,32 @@ public class LinearProgram {
         addOptimization();
     }
 
+    /**
+     * Initializes a linear program that only holds the (site,cell) pairs in
+     * {@code candidates}. Any previous model is discarded.
+     *
+     * @param candidates For each site, the cells it may be assigned to.
+     */
+    private void setupSparseLP(Map<Site, Set<Cell>> candidates) {
+        model = new CLP();
+        variables.clear();
+        siteVariables.clear();
+        cellVariables.clear();
+        siteMapping.clear();
+        cellMapping.clear();
+        siteConstraints.clear();
+        cellConstraints.clear();
+
+        for (Site s : candidates.keySet()) {
+            for (Cell c : candidates.get(s)) {
+                createVariable(s, c);
+            }
+        }
+        addSiteConstraint();
+        addCellConstraint();
+        addOptimization();
+    }
+
     /**
      * Creates variables for the cells and sites.
      *
@@ -64,27 +171,36 @@ public class LinearProgram {
         //Each site can be assigned to a cell in the grid.
         for (Site s : sites) {
             for (Cell c : gridCells) {
+                createVariable(s, c);
+            }
+        }
+    }
 
-                CLPVariable flow = model.addVariable();
-                //flow between 0 and 1
-                flow.bounds(0.0, 1.0);
-                //name it and add it
-                flow.name(s.label + ";" + c);
-                variables.add(flow);
+    /**
+     * Creates the flow variable between site {@code s} and cell {@code c}.
+     *
+     * @param s
+     * @param c
+     */
+    private void createVariable(Site s, Cell c) {
+        CLPVariable flow = model.addVariable();
+        //flow between 0 and 1
+        flow.bounds(0.0, 1.0);
+        //name it and add it
+        flow.name(s.label + ";" + c);
+        variables.add(flow);
 
-                //keep track of it
-                List cVarList = cellVariables.getOrDefault(c, new ArrayList());
-                cVarList.add(flow);
-                cellVariables.put(c, cVarList);
+        //keep track of it
+        List cVarList = cellVariables.getOrDefault(c, new ArrayList());
+        cVarList.add(flow);
+        cellVariables.put(c, cVarList);
 
-                List sVarList = siteVariables.getOrDefault(s, new ArrayList());
-                sVarList.add(flow);
-                siteVariables.put(s, sVarList);
+        List sVarList = siteVariables.getOrDefault(s, new ArrayList());
+        sVarList.add(flow);
+        siteVariables.put(s, sVarList);
 
-                siteMapping.put(flow, s);
-                cellMapping.put(flow, c);
-            }
-        }
+        siteMapping.put(flow, s);
+        cellMapping.put(flow, c);
     }
 
     /**
@@ -92,12 +208,12 @@ public class LinearProgram {
      */
     private void addSiteConstraint() {
         //every site maps to a total (exactly) one cell.
-        for (Collection<CLPVariable> variableList : siteVariables.values()) {
+        for (Site s : siteVariables.keySet()) {
             HashMap<CLPVariable, Double> lhs = new HashMap<>();
-            for (CLPVariable v : variableList) {
+            for (CLPVariable v : siteVariables.get(s)) {
                 lhs.put(v, 1.0);
             }
-            model.addConstraint(lhs, CLPConstraint.TYPE.EQ, 1);
+            siteConstraints.put(s, model.addConstraint(lhs, CLPConstraint.TYPE.EQ, 1));
         }
     }
 
@@ -106,12 +222,12 @@ public class LinearProgram {
      */
     private void addCellConstraint() {
         //every cell has at most one site mapped to it.
-        for (Collection<CLPVariable> variableList : cellVariables.values()) {
+        for (Cell c : cellVariables.keySet()) {
             HashMap<CLPVariable, Double> lhs = new HashMap<>();
-            for (CLPVariable v : variableList) {
+            for (CLPVariable v : cellVariables.get(c)) {
                 lhs.put(v, 1.0);
             }
-            model.addConstraint(lhs, CLPConstraint.TYPE.LEQ, 1);
+            cellConstraints.put(c, model.addConstraint(lhs, CLPConstraint.TYPE.LEQ, 1));
         }
     }
 
@@ -136,21 +252,51 @@ public class LinearProgram {
     }
 
     /**
-     * Solve the linear program and return the cost.
+     * Solve the linear program, write the assignment into the cells and
+     * return the cost.
      *
      * @return
      */
     public double solveLP() {
+        double cost = solve();
+        applyAssignment();
+        return cost;
+    }
+
+    /**
+     * Solve the linear program and return the cost. The assignment is only
+     * stored, and is written into the cells by {@link #applyAssignment()}.
+     *
+     * @return
+     */
+    public double solve() {
+        if (solver == Solver.HUNGARIAN) {
+            return solveAssignment();
+        }
+        if (solver == Solver.COLUMN_GENERATION) {
+            return solveColumnGeneration();
+        }
+        if (solver == Solver.HIERARCHICAL) {
+            return solveHierarchical();
+        }
+        if (solver == Solver.MIN_COST_FLOW) {
+            return solveMinCostFlow();
+        }
         model.minimize();
+        return extractSolution();
+    }
+
+    /**
+     * Assigns the sites to cells according to the solution of the model and
+     * returns its cost.
+     *
+     * @return
+     */
+    private double extractSolution() {
         for (CLPVariable v : variables) {
             if (model.getSolution(v) == 1) {
                 //there is a mapping from the site to the cell.
-                Site site = getSite(v);
-                Cell cell = getCell(v);
-                cell.label = site.label;
-                cell.color = site.color;
-                cell.province = site.province;
-
+                assign(getSite(v), getCell(v));
             } else if (model.getSolution(v) > 0) {
                 System.out.println("Non-integer solutions");
             }
@@ -158,6 +304,269 @@ public class LinearProgram {
         return model.getObjectiveValue();
     }
 
+    /**
+     * Solves the matching with column generation and returns the cost. The
+     * restricted model starts with the {@link #INITIAL_CANDIDATES} nearest
+     * cells of each site. After each solve the duals are used to price all
+     * (site,cell) pairs, and pairs with a negative reduced cost are added. If
+     * no such pair exists the restricted solution is optimal for the full
+     * model.
+     *
+     * @return
+     */
+    private double solveColumnGeneration() {
+        List<Site> sites = component.sites;
+        List<Cell> cells = component.cells;
+        if (sites.size() > cells.size()) {
+            System.err.println("Error: " + sites.size() + " sites cannot be assigned to " + cells.size() + " cells.");
+            return Double.POSITIVE_INFINITY;
+        }
+
+        CellIndex index = new CellIndex(cells);
+        //LinkedHash to keep the model deterministic
+        LinkedHashMap<Site, Set<Cell>> candidates = new LinkedHashMap();
+        for (Site s : sites) {
+            candidates.put(s, new LinkedHashSet());
+        }
+
+        int k = Math.min(INITIAL_CANDIDATES, cells.size());
+        addNearestCandidates(candidates, index, k);
+        int round = 0;
+        while (true) {
+            round++;
+            //The model is rebuilt each round, the restricted model is small compared to the dense one.
+            setupSparseLP(candidates);
+            CLP.STATUS status = model.minimize();
+            if (status != CLP.STATUS.OPTIMAL) {
+                //the nearest cells do not allow every site to be assigned. Widen the neighbourhood.
+                if (k >= cells.size()) {
+                    System.err.println("Error: no feasible assignment for component with " + sites.size() + " sites.");
+                    return Double.POSITIVE_INFINITY;
+                }
+                k = Math.min(2 * k, cells.size());
+                addNearestCandidates(candidates, index, k);
+                continue;
+            }
+            int added = addNegativeReducedCostPairs(candidates);
+            if (added == 0) {
+                break;
+            }
+        }
+        System.out.println("Column generation finished after " + round + " rounds with " + variables.size() + " of " + (sites.size() * cells.size()) + " variables");
+        return extractSolution();
+    }
+
+    /**
+     * Adds the {@code k} nearest cells of each site as candidates.
+     *
+     * @param candidates
+     * @param index
+     * @param k
+     */
+    private void addNearestCandidates(Map<Site, Set<Cell>> candidates, CellIndex index, int k) {
+        List<Cell> cells = component.cells;
+        for (Site s : candidates.keySet()) {
+            for (int i : index.nearest(s.c, k)) {
+                candidates.get(s).add(cells.get(i));
+            }
+        }
+    }
+
+    /**
+     * Prices all (site,cell) pairs using the duals of the current model and
+     * adds the pairs with a negative reduced cost as candidates. Returns the
+     * amount of pairs that were added.
+     *
+     * @param candidates
+     * @return
+     */
+    private int addNegativeReducedCostPairs(Map<Site, Set<Cell>> candidates) {
+        List<Cell> cells = component.cells;
+        //dual of each cell constraint. Cells without any variable have no constraint, and a dual of 0
+        double[] cellDuals = new double[cells.size()];
+        for (int j = 0; j < cells.size(); j++) {
+            CLPConstraint constraint = cellConstraints.get(cells.get(j));
+            if (constraint != null) {
+                cellDuals[j] = model.getDualSolution(constraint);
+            }
+        }
+
+        int added = 0;
+        for (Site s : candidates.keySet()) {
+            double siteDual = model.getDualSolution(siteConstraints.get(s));
+            Set<Cell> siteCandidates = candidates.get(s);
+            for (int j = 0; j < cells.size(); j++) {
+                Cell c = cells.get(j);
+                double reducedCost = c.squaredDistance(s.c) - siteDual - cellDuals[j];
+                if (reducedCost < -REDUCED_COST_TOLERANCE && siteCandidates.add(c)) {
+                    added++;
+                }
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Solves the matching as an assignment problem and returns the cost.
+     *
+     * @return
+     */
+    private double solveAssignment() {
+        List<Site> sites = component.sites;
+        List<Cell> cells = component.cells;
+        if (sites.size() > cells.size()) {
+            System.err.println("Error: " + sites.size() + " sites cannot be assigned to " + cells.size() + " cells.");
+            return Double.POSITIVE_INFINITY;
+        }
+
+        AssignmentSolver as = new AssignmentSolver(createCostMatrix(sites, cells), sites.size(), cells.size());
+        double cost;
+        if (warmStart == null) {
+            cost = as.solve();
+        } else {
+            cost = solveWarmStarted(as);
+        }
+        for (int i = 0; i < sites.size(); i++) {
+            assign(sites.get(i), cells.get(as.getAssignedColumn(i)));
+        }
+        cellPotentials = new double[cells.size()];
+        for (int j = 0; j < cells.size(); j++) {
+            cellPotentials[j] = as.getColumnPotential(j);
+        }
+        return cost;
+    }
+
+    /**
+     * Solves the matching approximately by splitting the component into
+     * smaller assignment problems. Small components are solved exactly.
+     *
+     * @return
+     */
+    private double solveHierarchical() {
+        List<Site> sites = component.sites;
+        List<Cell> cells = component.cells;
+        if (sites.size() <= LEAF_SIZE) {
+            return solveAssignment();
+        }
+        if (sites.size() > cells.size()) {
+            System.err.println("Error: " + sites.size() + " sites cannot be assigned to " + cells.size() + " cells.");
+            return Double.POSITIVE_INFINITY;
+        }
+
+        HierarchicalAssignment ha = new HierarchicalAssignment(sites, cells, LEAF_SIZE);
+        double cost = ha.solve();
+        for (int i = 0; i < sites.size(); i++) {
+            assign(sites.get(i), cells.get(ha.assignment[i]));
+        }
+        return cost;
+    }
+
+    /**
+     * Solves the matching as a sparse min-cost flow and returns the cost.
+     *
+     * @return
+     */
+    private double solveMinCostFlow() {
+        List<Site> sites = component.sites;
+        List<Cell> cells = component.cells;
+        if (sites.size() > cells.size()) {
+            System.err.println("Error: " + sites.size() + " sites cannot be assigned to " + cells.size() + " cells.");
+            return Double.POSITIVE_INFINITY;
+        }
+
+        MinCostFlowAssignment flow = new MinCostFlowAssignment(sites, cells);
+        double cost = flow.solve();
+        for (int i = 0; i < sites.size(); i++) {
+            assign(sites.get(i), cells.get(flow.siteMatch[i]));
+        }
+        return cost;
+    }
+
+    /**
+     * Solves the assignment starting from the previous assignment and cell
+     * potentials in {@code warmStart}.
+     *
+     * @param as
+     * @return
+     */
+    private double solveWarmStarted(AssignmentSolver as) {
+        List<Site> sites = component.sites;
+        List<Cell> cells = component.cells;
+
+        HashMap<String, Integer> siteIndex = new HashMap();
+        for (int i = 0; i < sites.size(); i++) {
+            siteIndex.put(sites.get(i).label, i);
+        }
+
+        int[] previousAssignment = new int[sites.size()];
+        Arrays.fill(previousAssignment, -1);
+        double[] previousPotentials = new double[cells.size()];
+        for (int j = 0; j < cells.size(); j++) {
+            Cell c = cells.get(j);
+            previousPotentials[j] = warmStart.getPreviousPotential(c);
+            Integer i = siteIndex.get(warmStart.getPreviousLabel(c));
+            if (i != null) {
+                previousAssignment[i] = j;
+            }
+        }
+        double cost = as.solve(previousAssignment, previousPotentials);
+        System.out.println("Warm start repaired " + as.augmentedRows + " of " + sites.size() + " sites");
+        return cost;
+    }
+
+    /**
+     * Start the hungarian solver from a previous run instead of from scratch.
+     * The result is still optimal.
+     *
+     * @param warmStart
+     */
+    public void setWarmStart(WarmStart warmStart) {
+        this.warmStart = warmStart;
+    }
+
+    /**
+     * Returns the row-major matrix holding the squared distance between each
+     * site (row) and cell (column).
+     *
+     * @param sites
+     * @param cells
+     * @return
+     */
+    static double[] createCostMatrix(List<Site> sites, List<Cell> cells) {
+        double[] cost = new double[sites.size() * cells.size()];
+        int i = 0;
+        for (Site s : sites) {
+            for (Cell c : cells) {
+                cost[i] = c.squaredDistance(s.c);
+                i++;
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * Maps {@code site} to {@code cell}.
+     *
+     * @param site
+     * @param cell
+     */
+    private void assign(Site site, Cell cell) {
+        assignment.put(cell, site);
+    }
+
+    /**
+     * Writes the label, color and province of each assigned site into its
+     * cell.
+     */
+    public void applyAssignment() {
+        for (Cell cell : assignment.keySet()) {
+            Site site = assignment.get(cell);
+            cell.label = site.label;
+            cell.color = site.color;
+            cell.province = site.province;
+        }
+    }
+
     /**
      * Returns the site associated to a given variable,
      *
@@ -0,0 +1,418 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gridmaplp;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Solves the assignment as a min-cost flow from sites to cells on a sparse
+ * network. Only (site,cell) pairs between a site and its nearby cells are
+ * edges. Costs are squared distances scaled to integers, such that the flow
+ * and potentials are exact and the solution is always integral.
+ *
+ * The network is solved by successive shortest paths with Dijkstra on the
+ * reduced costs. Afterwards all missing pairs are priced with the potentials;
+ * pairs with a negative reduced cost are added and the network is solved
+ * again. Without such pairs the solution is optimal for the full problem, up
+ * to the rounding of the scaled costs.
+ *
+ * @author msondag
+ */
+class MinCostFlowAssignment {
+
+    /**
+     * Largest cost scale. Smaller scales are used if the potentials could
+     * overflow otherwise.
+     */
+    private static final double MAX_SCALE = 1e6;
+
+    private final List<Site> sites;
+    private final List<Cell> cells;
+    private final int n, m;
+    /**
+     * Factor the squared distances are multiplied with before rounding.
+     */
+    private final double scale;
+
+    //candidate cells and their scaled cost, per site
+    private int[][] candidateCells;
+    private long[][] candidateCosts;
+    private int[] candidateCount;
+    private int totalCandidates = 0;
+
+    //potentials. Cell potentials never increase, free cells keep potential 0.
+    private long[] sitePotential;
+    private long[] cellPotential;
+    /**
+     * Cell of each site, -1 if unassigned.
+     */
+    int[] siteMatch;
+    /**
+     * Site of each cell, -1 if free.
+     */
+    private int[] cellMatch;
+
+    //dijkstra work arrays over cells, reused between augmentations
+    private long[] distance;
+    private int[] reachedFrom;
+    private boolean[] settled;
+    private int[] touched;
+    private CellHeap heap;
+
+    /**
+     * Amount of times the network was solved in the last call to solve.
+     */
+    int rounds = 0;
+
+    public MinCostFlowAssignment(List<Site> sites, List<Cell> cells) {
+        this.sites = sites;
+        this.cells = cells;
+        this.n = sites.size();
+        this.m = cells.size();
+
+        //potentials are bounded by the sum of the costs on a path, at most n times the largest cost.
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (Site s : sites) {
+            minX = Math.min(minX, s.c.x);
+            minY = Math.min(minY, s.c.y);
+            maxX = Math.max(maxX, s.c.x);
+            maxY = Math.max(maxY, s.c.y);
+        }
+        for (Cell c : cells) {
+            minX = Math.min(minX, c.mosaicCell.x);
+            minY = Math.min(minY, c.mosaicCell.y);
+            maxX = Math.max(maxX, c.mosaicCell.x);
+            maxY = Math.max(maxY, c.mosaicCell.y);
+        }
+        double maxCost = (maxX - minX) * (maxX - minX) + (maxY - minY) * (maxY - minY);
+        scale = Math.min(MAX_SCALE, (double) (1L << 60) / (Math.max(1, maxCost) * (n + 1)));
+    }
+
+    /**
+     * Computes the assignment and returns its cost in unscaled squared
+     * distances. Returns infinity if there are more sites than cells.
+     *
+     * @return
+     */
+    public double solve() {
+        if (n > m) {
+            return Double.POSITIVE_INFINITY;
+        }
+        candidateCells = new int[n][];
+        candidateCosts = new long[n][];
+        candidateCount = new int[n];
+        for (int i = 0; i < n; i++) {
+            candidateCells[i] = new int[4];
+            candidateCosts[i] = new long[4];
+        }
+        distance = new long[m];
+        reachedFrom = new int[m];
+        settled = new boolean[m];
+        touched = new int[m];
+        heap = new CellHeap(m);
+
+        CellIndex index = new CellIndex(cells);
+        int k = Math.min(LinearProgram.INITIAL_CANDIDATES, m);
+        addNearestCandidates(index, k);
+        rounds = 0;
+        while (true) {
+            rounds++;
+            if (!solveNetwork()) {
+                //the nearest cells do not allow every site to be assigned. Widen the neighbourhood.
+                if (k >= m) {
+                    return Double.POSITIVE_INFINITY;
+                }
+                k = Math.min(2 * k, m);
+                addNearestCandidates(index, k);
+                continue;
+            }
+            if (addNegativeReducedCostPairs(index) == 0) {
+                break;
+            }
+        }
+        System.out.println("Min cost flow finished after " + rounds + " rounds with " + totalCandidates + " of " + ((long) n * m) + " edges");
+
+        double cost = 0;
+        for (int i = 0; i < n; i++) {
+            cost += cells.get(siteMatch[i]).squaredDistance(sites.get(i).c);
+        }
+        return cost;
+    }
+
+    /**
+     * Solves the current network from scratch. Returns false if not all sites
+     * can be assigned using the candidate edges.
+     */
+    private boolean solveNetwork() {
+        sitePotential = new long[n];
+        cellPotential = new long[m];
+        siteMatch = new int[n];
+        cellMatch = new int[m];
+        Arrays.fill(siteMatch, -1);
+        Arrays.fill(cellMatch, -1);
+
+        for (int i = 0; i < n; i++) {
+            if (!augment(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Assigns the free site {@code s} along a shortest augmenting path in the
+     * reduced costs, and updates the potentials such that all reduced costs
+     * stay non-negative and the path becomes tight. Returns false if no free
+     * cell can be reached.
+     */
+    private boolean augment(int s) {
+        int touchedCount = 0;
+        relax(s, 0);
+        int freeCell = -1;
+        long pathLength = 0;
+        while (!heap.isEmpty()) {
+            int j = heap.poll(distance);
+            settled[j] = true;
+            touched[touchedCount++] = j;
+            if (cellMatch[j] == -1) {
+                freeCell = j;
+                pathLength = distance[j];
+                break;
+            }
+            //matched edges are tight, the site is reached at the same distance
+            relax(cellMatch[j], distance[j]);
+        }
+
+        if (freeCell != -1) {
+            //sites on the tree are s and the sites of settled matched cells
+            sitePotential[s] += pathLength;
+            for (int t = 0; t < touchedCount; t++) {
+                int j = touched[t];
+                long delta = pathLength - distance[j];
+                cellPotential[j] -= delta;
+                if (cellMatch[j] != -1 && j != freeCell) {
+                    sitePotential[cellMatch[j]] += delta;
+                }
+            }
+            //flip the path
+            int j = freeCell;
+            while (true) {
+                int i = reachedFrom[j];
+                int previous = siteMatch[i];
+                siteMatch[i] = j;
+                cellMatch[j] = i;
+                if (i == s) {
+                    break;
+                }
+                j = previous;
+            }
+        }
+
+        //reset the work arrays
+        for (int t = 0; t < touchedCount; t++) {
+            settled[touched[t]] = false;
+        }
+        while (!heap.isEmpty()) {
+            heap.poll(distance);
+        }
+        heap.clearPositions();
+        return freeCell != -1;
+    }
+
+    /**
+     * Relaxes all candidate edges of site {@code i}, which is reached at
+     * distance {@code d}.
+     */
+    private void relax(int i, long d) {
+        int[] siteCells = candidateCells[i];
+        long[] siteCosts = candidateCosts[i];
+        for (int e = 0; e < candidateCount[i]; e++) {
+            int j = siteCells[e];
+            if (settled[j]) {
+                continue;
+            }
+            long reduced = siteCosts[e] - sitePotential[i] - cellPotential[j];
+            long newDistance = d + reduced;
+            if (!heap.contains(j) || newDistance < distance[j]) {
+                distance[j] = newDistance;
+                reachedFrom[j] = i;
+                heap.insertOrDecrease(j, distance);
+            }
+        }
+    }
+
+    /**
+     * Adds the {@code k} nearest cells of each site as candidates.
+     */
+    private void addNearestCandidates(CellIndex index, int k) {
+        for (int i = 0; i < n; i++) {
+            addCandidates(i, index.nearest(sites.get(i).c, k));
+        }
+    }
+
+    /**
+     * Prices the pairs that are not in the network. Cell potentials are at
+     * most 0, so a pair can only have a negative reduced cost if its cost is
+     * below the site potential. These cells are found with the index. Returns
+     * the amount of pairs added.
+     */
+    private int addNegativeReducedCostPairs(CellIndex index) {
+        int added = 0;
+        for (int i = 0; i < n; i++) {
+            Coordinate c = sites.get(i).c;
+            int k = Math.min(m, 2 * candidateCount[i]);
+            List<Integer> nearest = index.nearest(c, k);
+            //grow until the furthest cell found cannot have a negative reduced cost
+            while (k < m && scaledCost(i, nearest.get(nearest.size() - 1)) < sitePotential[i]) {
+                k = Math.min(m, 2 * k);
+                nearest = index.nearest(c, k);
+            }
+            int before = candidateCount[i];
+            for (int j : nearest) {
+                if (scaledCost(i, j) - sitePotential[i] - cellPotential[j] < 0) {
+                    addCandidate(i, j);
+                }
+            }
+            added += candidateCount[i] - before;
+        }
+        return added;
+    }
+
+    private void addCandidates(int i, List<Integer> cellIndices) {
+        for (int j : cellIndices) {
+            addCandidate(i, j);
+        }
+    }
+
+    /**
+     * Adds the edge (i,j) if it is not present yet.
+     */
+    private void addCandidate(int i, int j) {
+        int count = candidateCount[i];
+        for (int e = 0; e < count; e++) {
+            if (candidateCells[i][e] == j) {
+                return;
+            }
+        }
+        if (count == candidateCells[i].length) {
+            candidateCells[i] = Arrays.copyOf(candidateCells[i], 2 * count);
+            candidateCosts[i] = Arrays.copyOf(candidateCosts[i], 2 * count);
+        }
+        candidateCells[i][count] = j;
+        candidateCosts[i][count] = scaledCost(i, j);
+        candidateCount[i]++;
+        totalCandidates++;
+    }
+
+    private long scaledCost(int i, int j) {
+        return Math.round(cells.get(j).squaredDistance(sites.get(i).c) * scale);
+    }
+
+    /**
+     * Binary min-heap of cells keyed on their distance, supporting decrease
+     * key.
+     */
+    private static class CellHeap {
+
+        private final int[] heap;
+        /**
+         * Position of each cell in the heap, -1 if not present.
+         */
+        private final int[] position;
+        private int size = 0;
+        //cells that were inserted since the last clear
+        private final int[] inserted;
+        private int insertedCount = 0;
+
+        CellHeap(int capacity) {
+            heap = new int[capacity];
+            position = new int[capacity];
+            inserted = new int[capacity];
+            Arrays.fill(position, -1);
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        boolean contains(int j) {
+            return position[j] >= 0;
+        }
+
+        void insertOrDecrease(int j, long[] key) {
+            if (position[j] < 0) {
+                if (position[j] == -1) {
+                    inserted[insertedCount++] = j;
+                }
+                heap[size] = j;
+                position[j] = size;
+                size++;
+            }
+            siftUp(position[j], key);
+        }
+
+        int poll(long[] key) {
+            int top = heap[0];
+            size--;
+            if (size > 0) {
+                heap[0] = heap[size];
+                position[heap[0]] = 0;
+                siftDown(0, key);
+            }
+            //polled cells are marked such that they are not added to the inserted list twice
+            position[top] = -2;
+            return top;
+        }
+
+        /**
+         * Marks all cells as absent again.
+         */
+        void clearPositions() {
+            for (int t = 0; t < insertedCount; t++) {
+                position[inserted[t]] = -1;
+            }
+            insertedCount = 0;
+        }
+
+        private void siftUp(int p, long[] key) {
+            int j = heap[p];
+            while (p > 0) {
+                int parent = (p - 1) / 2;
+                if (key[heap[parent]] <= key[j]) {
+                    break;
+                }
+                heap[p] = heap[parent];
+                position[heap[p]] = p;
+                p = parent;
+            }
+            heap[p] = j;
+            position[j] = p;
+        }
+
+        private void siftDown(int p, long[] key) {
+            int j = heap[p];
+            while (true) {
+                int child = 2 * p + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && key[heap[child + 1]] < key[heap[child]]) {
+                    child++;
+                }
+                if (key[heap[child]] >= key[j]) {
+                    break;
+                }
+                heap[p] = heap[child];
+                position[heap[p]] = p;
+                p = child;
+            }
+            heap[p] = j;
+            position[j] = p;
+        }
+    }
+}
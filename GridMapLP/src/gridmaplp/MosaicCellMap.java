@@ -6,10 +6,10 @@
 package gridmaplp;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -23,10 +23,19 @@ public class MosaicCellMap {
     //For each parent label, holds all shape centroids with the same label
     HashMap<String, List<MosaicCell>> inputCellMapping = new HashMap();
 
+    /**
+     * Reads the mosaic map from an ipe file, or the tile centers from a file
+     * in the binary interchange format.
+     *
+     * @param inputMapPath
+     */
     public MosaicCellMap(Path inputMapPath) {
         try {
-            List<String> mapLines = Files.readAllLines(inputMapPath);
-            readMap(mapLines);
+            if (BinaryInterchange.isBinary(inputMapPath)) {
+                readTiles(inputMapPath);
+            } else {
+                MosaicMapScanner.scan(inputMapPath, this::addCell);
+            }
         } catch (IOException ex) {
             Logger.getLogger(MosaicCellMap.class.getName()).log(Level.SEVERE, null, ex);
         }
@@ -36,57 +45,39 @@ public class MosaicCellMap {
 
     }
 
-    private void readMap(List<String> mapLines) {
-        for (int i = 0; i < mapLines.size(); i++) {
-            String line = mapLines.get(i);
-            if (line.startsWith("<path name=")) {
-                readSquareOrHexLine(mapLines, i);
+    /**
+     * Mosaic map of which the tile centroids are already known. Holds for each
+     * parent label the centroids of its tiles.
+     *
+     * @param tileCenters
+     */
+    public MosaicCellMap(LinkedHashMap<String, List<Coordinate>> tileCenters) {
+        for (String label : tileCenters.keySet()) {
+            for (Coordinate c : tileCenters.get(label)) {
+                addCell(label, c.x, c.y);
             }
         }
+        shiftMapToOrigin();
     }
 
-    private void readSquareOrHexLine(List<String> mapLines, int i) {
-        //get the label
-        String line1 = mapLines.get(i);
-        line1 = line1.substring(line1.indexOf("name=\"") + 6);
-        String label = line1.substring(0, line1.indexOf("\""));
-
-        //find the centroid of the cell
-        double centerX;
-        double centerY;
-
-        //first check if it is a hex or a square
-        String line5 = mapLines.get(i + 4);
-        boolean square = line5.startsWith("h");
-
-        if (square) {
-            String line2 = mapLines.get(i + 1);
-            String[] split = line2.split(" ");
-
-            centerX = Double.parseDouble(split[0]) + 0.5;
-            centerY = Double.parseDouble(split[1]) + 0.5;
-
-        } else {//hex
-            String line2 = mapLines.get(i + 1);
-            String[] split2 = line2.split(" ");
-
-            double x1 = Double.parseDouble(split2[0]);
-            double y1 = Double.parseDouble(split2[1]);
-
-            String[] split5 = line5.split(" ");
-            double x2 = Double.parseDouble(split5[0]);
-            double y2 = Double.parseDouble(split5[1]);
-
-            //get the center of the hexagon
-            centerX = x1 + (x2 - x1) / 2.0;
-            centerY = y1 + (y2 - y1) / 2.0;
+    //read the tile centers in the binary interchange format
+    private void readTiles(Path tilesPath) throws IOException {
+        BinaryInterchange.Reader tiles = new BinaryInterchange.Reader(tilesPath);
+        for (int i = 0; i < tiles.getCount(); i++) {
+            addCell(tiles.getLabel(i), tiles.getX(i), tiles.getY(i));
         }
+    }
 
-        //add the square/hex to the mapping
-        List<MosaicCell> list = inputCellMapping.getOrDefault(label, new ArrayList<>());
+    /**
+     * Adds the square/hex with centroid (centerX,centerY) to the mapping.
+     */
+    private void addCell(String label, double centerX, double centerY) {
+        List<MosaicCell> list = inputCellMapping.get(label);
+        if (list == null) {
+            list = new ArrayList<>();
+            inputCellMapping.put(label, list);
+        }
         list.add(new MosaicCell(centerX, centerY, label));
-        inputCellMapping.put(label, list);
-
     }
 
 //Depectracted as it results in visual artifacts. Can be used to generate gradients hexagonal maps.
@@ -0,0 +1,300 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gridmaplp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the tiles of a mosaic map in a single pass over the memory mapped
+ * ipe file. Every {@code <path>} element with a name attribute is a tile. Its
+ * centroid is the mean of its vertices, which holds for both squares and
+ * hexagons. Does not depend on how the file is split into lines.
+ *
+ * @author msondag
+ */
+class MosaicMapScanner {
+
+    /**
+     * Receives the tiles that are read.
+     */
+    interface TileHandler {
+
+        void tile(String label, double x, double y);
+    }
+
+    private static final byte[] PATH_TAG = "<path".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NAME_ATTRIBUTE = "name=\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MATRIX_ATTRIBUTE = "matrix=\"".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * Powers of ten that are exactly representable as a double.
+     */
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final int limit;
+    private int pos = 0;
+
+    MosaicMapScanner(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.limit = buffer.limit();
+    }
+
+    /**
+     * Reads all tiles in the file at {@code path}.
+     *
+     * @param path
+     * @param handler
+     * @throws IOException
+     */
+    static void scan(Path path, TileHandler handler) throws IOException {
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            new MosaicMapScanner(buffer).scan(handler);
+        }
+    }
+
+    /**
+     * Reads all tiles in the buffer.
+     *
+     * @param handler
+     * @throws IOException if the name of a tile is not closed
+     */
+    void scan(TileHandler handler) throws IOException {
+        while (findPathTag()) {
+            int tagStart = pos;
+            int tagEnd = indexOf((byte) '>', tagStart);
+            if (tagEnd == -1) {
+                return;
+            }
+            pos = tagEnd + 1;
+            int nameStart = findAttribute(NAME_ATTRIBUTE, tagStart, tagEnd);
+            if (nameStart == -1 || buffer.get(tagEnd - 1) == '/') {
+                //not a tile
+                continue;
+            }
+            int nameEnd = indexOf((byte) '"', nameStart);
+            if (nameEnd == -1) {
+                throw new IOException("Name of the tile at offset " + tagStart + " is not closed");
+            }
+            byte[] labelBytes = new byte[nameEnd - nameStart];
+            for (int i = 0; i < labelBytes.length; i++) {
+                labelBytes[i] = buffer.get(nameStart + i);
+            }
+            String label = new String(labelBytes, StandardCharsets.UTF_8);
+
+            readTile(handler, label, findAttribute(MATRIX_ATTRIBUTE, tagStart, tagEnd));
+        }
+    }
+
+    /**
+     * Reads the path operators of a tile up to the closing tag, and reports
+     * the mean of its vertices. A last vertex equal to the first one only
+     * closes the path and is not counted.
+     */
+    private void readTile(TileHandler handler, String label, int matrixStart) {
+        double sumX = 0, sumY = 0;
+        double firstX = 0, firstY = 0;
+        int vertices = 0;
+        //last two operands
+        double x = 0, y = 0;
+        int operands = 0;
+
+        while (pos < limit) {
+            byte b = buffer.get(pos);
+            if (b == '<') {
+                break;
+            }
+            if (isWhitespace(b)) {
+                pos++;
+            } else if (isNumberStart(b)) {
+                x = y;
+                y = parseNumber();
+                operands++;
+            } else {
+                //operator. Only move and line operators define vertices
+                if ((b == 'm' || b == 'l') && operands >= 2) {
+                    if (vertices == 0) {
+                        firstX = x;
+                        firstY = y;
+                    }
+                    if (vertices == 0 || x != firstX || y != firstY) {
+                        sumX += x;
+                        sumY += y;
+                        vertices++;
+                    }
+                }
+                operands = 0;
+                pos++;
+            }
+        }
+        if (vertices == 0) {
+            System.err.println("Tile " + label + " has no vertices, it is skipped");
+            return;
+        }
+
+        double centerX = sumX / vertices;
+        double centerY = sumY / vertices;
+        if (matrixStart != -1) {
+            //ipe matrix "a b c d e f" maps (x,y) to (ax+cy+e, bx+dy+f)
+            int afterPath = pos;
+            pos = matrixStart;
+            double[] m = new double[6];
+            for (int i = 0; i < 6; i++) {
+                while (pos < limit && isWhitespace(buffer.get(pos))) {
+                    pos++;
+                }
+                m[i] = parseNumber();
+            }
+            pos = afterPath;
+            double tx = m[0] * centerX + m[2] * centerY + m[4];
+            double ty = m[1] * centerX + m[3] * centerY + m[5];
+            centerX = tx;
+            centerY = ty;
+        }
+        handler.tile(label, centerX, centerY);
+    }
+
+    /**
+     * Moves {@code pos} to the start of the next path tag. Returns false if
+     * there is none.
+     */
+    private boolean findPathTag() {
+        while (true) {
+            int start = indexOf((byte) '<', pos);
+            if (start == -1 || start + PATH_TAG.length >= limit) {
+                pos = limit;
+                return false;
+            }
+            pos = start + 1;
+            if (matches(PATH_TAG, start)) {
+                byte next = buffer.get(start + PATH_TAG.length);
+                if (isWhitespace(next) || next == '>' || next == '/') {
+                    pos = start;
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the position right after {@code attribute} within
+     * [from,to), or -1 if the tag does not have it.
+     */
+    private int findAttribute(byte[] attribute, int from, int to) {
+        for (int i = from + 1; i + attribute.length <= to; i++) {
+            if (isWhitespace(buffer.get(i - 1)) && matches(attribute, i)) {
+                return i + attribute.length;
+            }
+        }
+        return -1;
+    }
+
+    private boolean matches(byte[] bytes, int at) {
+        if (at + bytes.length > limit) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(at + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(byte b, int from) {
+        for (int i = from; i < limit; i++) {
+            if (buffer.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses the number starting at {@code pos} and moves {@code pos} past it.
+     * Numbers with at most 15 significant digits are parsed exactly without
+     * allocating.
+     */
+    private double parseNumber() {
+        int start = pos;
+        boolean negative = false;
+        byte b = buffer.get(pos);
+        if (b == '-' || b == '+') {
+            negative = b == '-';
+            pos++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean fraction = false;
+        while (pos < limit) {
+            b = buffer.get(pos);
+            if (b >= '0' && b <= '9') {
+                if (mantissa != 0 || b != '0') {
+                    digits++;
+                }
+                if (digits <= 18) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (fraction) {
+                        exponent--;
+                    }
+                } else if (!fraction) {
+                    exponent++;
+                }
+                pos++;
+            } else if (b == '.' && !fraction) {
+                fraction = true;
+                pos++;
+            } else {
+                break;
+            }
+        }
+        if (pos < limit && (buffer.get(pos) == 'e' || buffer.get(pos) == 'E')) {
+            //exponent notation is rare in ipe files, use the slow path
+            pos++;
+            if (pos < limit && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+                pos++;
+            }
+            while (pos < limit && buffer.get(pos) >= '0' && buffer.get(pos) <= '9') {
+                pos++;
+            }
+            return slowParse(start);
+        }
+        if (digits > 15 || -exponent >= POWERS_OF_TEN.length || exponent > 0) {
+            return slowParse(start);
+        }
+        double value = mantissa / POWERS_OF_TEN[-exponent];
+        return negative ? -value : value;
+    }
+
+    private double slowParse(int start) {
+        byte[] bytes = new byte[pos - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private static boolean isNumberStart(byte b) {
+        return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.';
+    }
+}
@@ -19,15 +19,34 @@ import java.util.logging.Logger;
  *
  * @author msondag
  */
-class SiteMap {
+public class SiteMap {
 
     //for each partition with a given label, holds all sites that belong to this list
     HashMap<String, List<Site>> siteMapping = new HashMap();
+    //for each site label, the sites with this label. Labels should be unique.
+    HashMap<String, List<Site>> sitesByLabel = new HashMap();
 
+    /**
+     * Empty sitemap. Sites are added with
+     * {@link #addSite(String, String, double, double, Color)}.
+     */
+    public SiteMap() {
+    }
+
+    /**
+     * Reads the sites from a tsv file, or from a file in the binary
+     * interchange format.
+     *
+     * @param coordinatePath
+     */
     public SiteMap(Path coordinatePath) {
         try {
-            List<String> sites = Files.readAllLines(coordinatePath);
-            readSites(sites);
+            if (BinaryInterchange.isBinary(coordinatePath)) {
+                readBinarySites(coordinatePath);
+            } else {
+                List<String> sites = Files.readAllLines(coordinatePath);
+                readSites(sites);
+            }
         } catch (IOException ex) {
             Logger.getLogger(MosaicCellMap.class.getName()).log(Level.SEVERE, null, ex);
         }
@@ -46,18 +65,52 @@ class SiteMap {
             int green = Integer.parseInt(split[5]);
             int blue = Integer.parseInt(split[6]);
 
-            Site s = new Site(parent, label, new Coordinate(x, y), new Color(red, green, blue));
-            List<Site> siteMap = siteMapping.getOrDefault(parent, new ArrayList<>());
-            siteMap.add(s);
-            siteMapping.put(parent, siteMap);
+            addSite(parent, label, x, y, new Color(red, green, blue));
         }
     }
 
+    //read the sites in the binary interchange format
+    private void readBinarySites(Path sitePath) throws IOException {
+        BinaryInterchange.Reader sites = new BinaryInterchange.Reader(sitePath);
+        for (int i = 0; i < sites.getCount(); i++) {
+            addSite(sites.getParent(i), sites.getLabel(i), sites.getX(i), sites.getY(i), new Color(sites.getColor(i)));
+        }
+    }
+
+    /**
+     * Adds a site with the given label that lies in the partition with label
+     * {@code parent}.
+     *
+     * @param parent
+     * @param label
+     * @param x
+     * @param y
+     * @param color
+     */
+    public void addSite(String parent, String label, double x, double y, Color color) {
+        Site s = new Site(parent, label, new Coordinate(x, y), color);
+        List<Site> siteMap = siteMapping.getOrDefault(parent, new ArrayList<>());
+        siteMap.add(s);
+        siteMapping.put(parent, siteMap);
+
+        List<Site> labelSites = sitesByLabel.get(label);
+        if (labelSites == null) {
+            labelSites = new ArrayList();
+            sitesByLabel.put(label, labelSites);
+        }
+        labelSites.add(s);
+    }
+
     //get a list of sites belong to a partition.
     public List<Site> get(String key) {
         return siteMapping.get(key);
     }
 
+    //get all sites with the given site label.
+    public List<Site> getSitesByLabel(String label) {
+        return sitesByLabel.getOrDefault(label, new ArrayList());
+    }
+
     //get the width of all sites
     public double getSiteWidth() {
         double maxX = Double.MIN_VALUE;
@@ -0,0 +1,146 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gridmaplp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Holds the result of a previous run that is used to warm start the
+ * assignment: the site label placed on each cell, read from the previous
+ * gridmap output, and the dual potential of each cell, read from the duals
+ * file written by that run. Cells are identified by the position of their
+ * centroid.
+ *
+ * @author msondag
+ */
+class WarmStart {
+
+    /**
+     * Label of the site that was assigned to each cell.
+     */
+    private HashMap<String, String> previousLabels = new HashMap();
+    /**
+     * Dual potential of each cell.
+     */
+    private HashMap<String, Double> previousPotentials = new HashMap();
+
+    /**
+     * Reads the previous run.
+     *
+     * @param previousGridmap Gridmap output of the previous run
+     * @param previousDuals   duals file of the previous run
+     * @param useHexTiles     Whether the previous gridmap used hexagons. Square
+     *                        labels are offset from the cell centroid.
+     * @throws IOException
+     */
+    public WarmStart(Path previousGridmap, Path previousDuals, boolean useHexTiles) throws IOException {
+        readLabels(previousGridmap, useHexTiles);
+        readPotentials(previousDuals);
+    }
+
+    /**
+     * Reads the label of each cell from the text objects in the gridmap. The
+     * gridmap is gunzipped if the file name ends with ".gz", like the output
+     * written by {@link Utility.IpeWriter#open}.
+     */
+    private void readLabels(Path previousGridmap, boolean useHexTiles) throws IOException {
+        //squares are drawn from their centroid, so the labels are shifted by half a cell.
+        double offset = useHexTiles ? 0 : 0.5;
+        InputStream is = Files.newInputStream(previousGridmap);
+        if (previousGridmap.getFileName().toString().endsWith(".gz")) {
+            is = new GZIPInputStream(is, 1 << 16);
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8), 1 << 16)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.startsWith("<text") || !line.contains(" pos=\"")) {
+                    continue;
+                }
+                String pos = line.substring(line.indexOf(" pos=\"") + 6);
+                pos = pos.substring(0, pos.indexOf("\""));
+                String[] split = pos.split(" ");
+                double x = Double.parseDouble(split[0]) - offset;
+                double y = Double.parseDouble(split[1]) - offset;
+
+                String label = line.substring(line.indexOf(">") + 1, line.lastIndexOf("</text>"));
+                previousLabels.put(getKey(x, y), label);
+            }
+        }
+    }
+
+    /**
+     * Reads the potential of each cell. Format: x\ty\tpotential
+     */
+    private void readPotentials(Path previousDuals) throws IOException {
+        for (String line : Files.readAllLines(previousDuals)) {
+            String[] split = line.split("\t");
+            double x = Double.parseDouble(split[0]);
+            double y = Double.parseDouble(split[1]);
+            previousPotentials.put(getKey(x, y), Double.parseDouble(split[2]));
+        }
+    }
+
+    /**
+     * Returns the label of the site that was previously assigned to
+     * {@code c}, or null if there was none.
+     *
+     * @param c
+     * @return
+     */
+    public String getPreviousLabel(Cell c) {
+        return previousLabels.get(getKey(c.mosaicCell.x, c.mosaicCell.y));
+    }
+
+    /**
+     * Returns the previous potential of {@code c}, or 0 if the cell is new.
+     *
+     * @param c
+     * @return
+     */
+    public double getPreviousPotential(Cell c) {
+        return previousPotentials.getOrDefault(getKey(c.mosaicCell.x, c.mosaicCell.y), 0.0);
+    }
+
+    /**
+     * Writes the potential of each cell that was solved by the hungarian
+     * solver, such that a later run can be warm started.
+     *
+     * @param dualsPath
+     * @param lps
+     * @throws IOException
+     */
+    public static void writePotentials(Path dualsPath, List<LinearProgram> lps) throws IOException {
+        List<String> lines = new ArrayList();
+        for (LinearProgram lp : lps) {
+            if (lp.cellPotentials == null) {
+                continue;
+            }
+            List<Cell> cells = lp.component.cells;
+            for (int i = 0; i < cells.size(); i++) {
+                MosaicCell mc = cells.get(i).mosaicCell;
+                lines.add(mc.x + "\t" + mc.y + "\t" + lp.cellPotentials[i]);
+            }
+        }
+        Files.write(dualsPath, lines);
+    }
+
+    /**
+     * Cells are matched on their position up to 3 digits.
+     */
+    private static String getKey(double x, double y) {
+        return Math.round(x * 1000) + " " + Math.round(y * 1000);
+    }
+}
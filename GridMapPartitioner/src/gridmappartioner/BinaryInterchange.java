@@ -0,0 +1,390 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gridmappartioner;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Binary format of the data that is passed between the programs of the
+ * pipeline: the regions of a partition with their labels and weights, sites
+ * labeled with their region, and the tiles of a mosaic map. The partitioner,
+ * mosaic-maps and GridMapLP are built on their own, so each has a copy of
+ * this class. The copies only differ in their package and must stay the
+ * same. The combiner uses the copy of GridMapLP.
+ *
+ * A file holds records of a single kind. All numbers are big endian. Version
+ * 1 is laid out as follows:
+ * <pre>
+ * header, 32 bytes
+ *    0 int    magic "GMBF"
+ *    4 int    version
+ *    8 int    kind: 1 partition, 2 sites, 3 tiles
+ *   12 int    amount of records n
+ *   16 long   offset of the vertices, 0 if the kind has no vertices
+ *   24 long   offset of the strings
+ * records, n times the record size of the kind, from offset 32
+ *   partition, 40 bytes: int label, int weight, double label x, double label y, int rgb color, int first vertex, int vertex count, int unused
+ *   sites, 32 bytes:     int label, int parent, double x, double y, int rgb color, int unused
+ *   tiles, 24 bytes:     int label, int unused, double x, double y (center of the tile)
+ * vertices, 16 bytes each: double x, double y
+ * strings: int m, int[m + 1] start of each string in the utf-8 bytes that follow, utf-8 bytes
+ * </pre>
+ * Strings are stored once and referred to by their index, -1 if there is no
+ * string. The weight of a region without a label is -1. As the records have
+ * a fixed size, a reader maps the file into memory and only decodes the
+ * records and strings that are asked for.
+ *
+ * @author msondag
+ */
+public final class BinaryInterchange {
+
+    public static final int MAGIC = 0x474D4246;
+    public static final int VERSION = 1;
+
+    public static final int PARTITION = 1;
+    public static final int SITES = 2;
+    public static final int TILES = 3;
+
+    private static final int HEADER_SIZE = 32;
+    //record size per kind
+    private static final int[] RECORD_SIZE = {0, 40, 32, 24};
+
+    private BinaryInterchange() {
+    }
+
+    /**
+     * Returns whether the file starts with the magic number of this format.
+     *
+     * @param path
+     * @return
+     */
+    public static boolean isBinary(Path path) {
+        if (!Files.isRegularFile(path)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException ex) {
+            //shorter than the magic number
+            return false;
+        }
+    }
+
+    /**
+     * Collects records of a single kind and writes them to a file.
+     */
+    public static class Writer {
+
+        private final int kind;
+        private int count = 0;
+        private int vertexCount = 0;
+
+        private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        private final DataOutputStream records = new DataOutputStream(recordBytes);
+        private final ByteArrayOutputStream vertexBytes = new ByteArrayOutputStream();
+        private final DataOutputStream vertices = new DataOutputStream(vertexBytes);
+
+        private final List<String> strings = new ArrayList();
+        private final HashMap<String, Integer> stringIndex = new HashMap();
+
+        public Writer(int kind) {
+            if (kind != PARTITION && kind != SITES && kind != TILES) {
+                throw new IllegalArgumentException("Unknown kind " + kind);
+            }
+            this.kind = kind;
+        }
+
+        /**
+         * Adds a region of a partition with vertices (xs[i],ys[i]).
+         *
+         * @param xs
+         * @param ys
+         * @param label null if the region has no label
+         * @param labelX
+         * @param labelY
+         * @param weight -1 if the region has no weight
+         * @param rgb fill color of the region
+         * @throws IOException
+         */
+        public void addRegion(double[] xs, double[] ys, String label, double labelX, double labelY, int weight, int rgb) throws IOException {
+            checkKind(PARTITION);
+            records.writeInt(index(label));
+            records.writeInt(weight);
+            records.writeDouble(labelX);
+            records.writeDouble(labelY);
+            records.writeInt(rgb);
+            records.writeInt(vertexCount);
+            records.writeInt(xs.length);
+            records.writeInt(0);
+            for (int i = 0; i < xs.length; i++) {
+                vertices.writeDouble(xs[i]);
+                vertices.writeDouble(ys[i]);
+            }
+            vertexCount += xs.length;
+            count++;
+        }
+
+        /**
+         * Adds a site.
+         *
+         * @param parent label of the region the site is in, null if none
+         * @param label
+         * @param x
+         * @param y
+         * @param rgb
+         * @throws IOException
+         */
+        public void addSite(String parent, String label, double x, double y, int rgb) throws IOException {
+            checkKind(SITES);
+            records.writeInt(index(label));
+            records.writeInt(index(parent));
+            records.writeDouble(x);
+            records.writeDouble(y);
+            records.writeInt(rgb);
+            records.writeInt(0);
+            count++;
+        }
+
+        /**
+         * Adds a tile of the region with the given label.
+         *
+         * @param label
+         * @param x center of the tile
+         * @param y center of the tile
+         * @throws IOException
+         */
+        public void addTile(String label, double x, double y) throws IOException {
+            checkKind(TILES);
+            records.writeInt(index(label));
+            records.writeInt(0);
+            records.writeDouble(x);
+            records.writeDouble(y);
+            count++;
+        }
+
+        private void checkKind(int recordKind) {
+            if (kind != recordKind) {
+                throw new IllegalStateException("Record of kind " + recordKind + " added to a file of kind " + kind);
+            }
+        }
+
+        private int index(String s) {
+            if (s == null) {
+                return -1;
+            }
+            Integer index = stringIndex.get(s);
+            if (index == null) {
+                index = strings.size();
+                strings.add(s);
+                stringIndex.put(s, index);
+            }
+            return index;
+        }
+
+        /**
+         * Writes all records to {@code path}.
+         *
+         * @param path
+         * @throws IOException
+         */
+        public void write(Path path) throws IOException {
+            long vertexOffset = HEADER_SIZE + recordBytes.size();
+            long stringOffset = vertexOffset + vertexBytes.size();
+
+            List<byte[]> stringBytes = new ArrayList();
+            for (String s : strings) {
+                stringBytes.add(s.getBytes(StandardCharsets.UTF_8));
+            }
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(kind);
+                out.writeInt(count);
+                out.writeLong(kind == PARTITION ? vertexOffset : 0);
+                out.writeLong(stringOffset);
+                recordBytes.writeTo(out);
+                vertexBytes.writeTo(out);
+
+                out.writeInt(stringBytes.size());
+                int start = 0;
+                out.writeInt(start);
+                for (byte[] bytes : stringBytes) {
+                    start += bytes.length;
+                    out.writeInt(start);
+                }
+                for (byte[] bytes : stringBytes) {
+                    out.write(bytes);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads records from a file that is mapped into memory. Only the records
+     * and strings that are asked for are decoded.
+     */
+    public static class Reader {
+
+        private final ByteBuffer buffer;
+        private final int kind;
+        private final int count;
+        private final int vertexOffset;
+        private final int stringCount;
+        //offset of the start of each string
+        private final int stringStartOffset;
+        //offset of the utf-8 bytes of the strings
+        private final int stringDataOffset;
+
+        public Reader(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw new IOException(path + " is not a binary interchange file");
+            }
+            int version = buffer.getInt(4);
+            if (version > VERSION) {
+                throw new IOException(path + " has version " + version + ", only up to version " + VERSION + " can be read");
+            }
+            kind = buffer.getInt(8);
+            if (kind != PARTITION && kind != SITES && kind != TILES) {
+                throw new IOException(path + " holds records of unknown kind " + kind);
+            }
+            count = buffer.getInt(12);
+            vertexOffset = (int) buffer.getLong(16);
+            int stringOffset = (int) buffer.getLong(24);
+            stringCount = buffer.getInt(stringOffset);
+            stringStartOffset = stringOffset + 4;
+            stringDataOffset = stringStartOffset + 4 * (stringCount + 1);
+        }
+
+        public int getKind() {
+            return kind;
+        }
+
+        /**
+         * Amount of records in the file.
+         *
+         * @return
+         */
+        public int getCount() {
+            return count;
+        }
+
+        private int record(int i) {
+            return HEADER_SIZE + i * RECORD_SIZE[kind];
+        }
+
+        private String string(int index) {
+            if (index < 0) {
+                return null;
+            }
+            int start = buffer.getInt(stringStartOffset + 4 * index);
+            int end = buffer.getInt(stringStartOffset + 4 * (index + 1));
+            byte[] bytes = new byte[end - start];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(stringDataOffset + start + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Label of region, site or tile i. Null if it has none.
+         *
+         * @param i
+         * @return
+         */
+        public String getLabel(int i) {
+            return string(buffer.getInt(record(i)));
+        }
+
+        /**
+         * Position of the label of region i, or the position of site or tile
+         * i.
+         *
+         * @param i
+         * @return
+         */
+        public double getX(int i) {
+            return buffer.getDouble(record(i) + 8);
+        }
+
+        public double getY(int i) {
+            return buffer.getDouble(record(i) + 16);
+        }
+
+        /**
+         * Weight of region i, -1 if it has none.
+         *
+         * @param i
+         * @return
+         */
+        public int getWeight(int i) {
+            checkKind(PARTITION);
+            return buffer.getInt(record(i) + 4);
+        }
+
+        public int getVertexCount(int i) {
+            checkKind(PARTITION);
+            return buffer.getInt(record(i) + 32);
+        }
+
+        public double getVertexX(int i, int j) {
+            checkKind(PARTITION);
+            return buffer.getDouble(vertexOffset + 16 * (buffer.getInt(record(i) + 28) + j));
+        }
+
+        public double getVertexY(int i, int j) {
+            checkKind(PARTITION);
+            return buffer.getDouble(vertexOffset + 16 * (buffer.getInt(record(i) + 28) + j) + 8);
+        }
+
+        /**
+         * Label of the region site i is in. Null if it is not in a region.
+         *
+         * @param i
+         * @return
+         */
+        public String getParent(int i) {
+            checkKind(SITES);
+            return string(buffer.getInt(record(i) + 4));
+        }
+
+        /**
+         * Color of region or site i as rgb value.
+         *
+         * @param i
+         * @return
+         */
+        public int getColor(int i) {
+            if (kind == TILES) {
+                throw new IllegalStateException("Color read from a file of kind " + kind);
+            }
+            return buffer.getInt(record(i) + 24);
+        }
+
+        //the fields of the records overlap, so reading a field of a different kind gives garbage.
+        private void checkKind(int recordKind) {
+            if (kind != recordKind) {
+                throw new IllegalStateException("Field of a record of kind " + recordKind + " read from a file of kind " + kind);
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gridmappartioner;
+
+import java.util.ArrayList;
+import java.util.List;
+import nl.tue.geometrycore.geometry.Vector;
+
+/**
+ * Bounding box hierarchy over the segments of a partition polygon. The
+ * segments are in order along the boundary, so consecutive segments are close
+ * together and the hierarchy is built over ranges of consecutive segments.
+ * Answers which segments are closest to a point, or lie close to it, without
+ * going over all segments.
+ *
+ * @author msondag
+ */
+public class BoundaryIndex {
+
+    /**
+     * Segments up to this distance beyond the closest one are returned as
+     * candidates. Far larger than {@link Precision#ACCURACY}, such that
+     * comparisons with the precision give the same result on the candidates as
+     * on all segments.
+     */
+    public static final double MARGIN = 1000 * Precision.ACCURACY;
+
+    private static final int LEAF_SIZE = 8;
+
+    private final List<PartitionSegment> segments;
+
+    //nodes of the hierarchy. Node i holds segments from[i] until to[i], and its children are left[i] and left[i]+1.
+    private final List<double[]> boxes = new ArrayList();
+    private final List<int[]> ranges = new ArrayList();
+    private final List<Integer> left = new ArrayList();
+
+    public BoundaryIndex(List<PartitionSegment> segments) {
+        this.segments = segments;
+        if (!segments.isEmpty()) {
+            addNode(0, segments.size());
+            build(0);
+        }
+    }
+
+    private int addNode(int from, int to) {
+        double[] box = new double[]{Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        for (int i = from; i < to; i++) {
+            for (Vector v : new Vector[]{segments.get(i).getStart(), segments.get(i).getEnd()}) {
+                box[0] = Math.min(box[0], v.getX());
+                box[1] = Math.min(box[1], v.getY());
+                box[2] = Math.max(box[2], v.getX());
+                box[3] = Math.max(box[3], v.getY());
+            }
+        }
+        boxes.add(box);
+        ranges.add(new int[]{from, to});
+        left.add(-1);
+        return boxes.size() - 1;
+    }
+
+    private void build(int node) {
+        int from = ranges.get(node)[0];
+        int to = ranges.get(node)[1];
+        if (to - from <= LEAF_SIZE) {
+            return;
+        }
+        int middle = (from + to) / 2;
+        int leftChild = addNode(from, middle);
+        addNode(middle, to);
+        left.set(node, leftChild);
+        build(leftChild);
+        build(leftChild + 1);
+    }
+
+    private double boxDistance(int node, Vector v) {
+        double[] box = boxes.get(node);
+        double dx = Math.max(0, Math.max(box[0] - v.getX(), v.getX() - box[2]));
+        double dy = Math.max(0, Math.max(box[1] - v.getY(), v.getY() - box[3]));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Returns the distance from {@code v} to the closest segment.
+     *
+     * @param v
+     * @return
+     */
+    public double distanceTo(Vector v) {
+        double best = Double.MAX_VALUE;
+        if (segments.isEmpty()) {
+            return best;
+        }
+        List<Integer> stack = new ArrayList();
+        stack.add(0);
+        while (!stack.isEmpty()) {
+            int node = stack.remove(stack.size() - 1);
+            if (boxDistance(node, v) >= best) {
+                continue;
+            }
+            if (left.get(node) == -1) {
+                for (int i = ranges.get(node)[0]; i < ranges.get(node)[1]; i++) {
+                    best = Math.min(best, segments.get(i).distanceTo(v));
+                }
+                continue;
+            }
+            //visit the closest child first, such that the other one is more likely to be pruned
+            int l = left.get(node);
+            if (boxDistance(l, v) <= boxDistance(l + 1, v)) {
+                stack.add(l + 1);
+                stack.add(l);
+            } else {
+                stack.add(l);
+                stack.add(l + 1);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the indices of the segments at most {@code radius} from
+     * {@code v}, in increasing order.
+     *
+     * @param v
+     * @param radius
+     * @return
+     */
+    public List<Integer> segmentsWithin(Vector v, double radius) {
+        List<Integer> result = new ArrayList();
+        if (segments.isEmpty()) {
+            return result;
+        }
+        List<Integer> stack = new ArrayList();
+        stack.add(0);
+        while (!stack.isEmpty()) {
+            int node = stack.remove(stack.size() - 1);
+            if (boxDistance(node, v) > radius) {
+                continue;
+            }
+            if (left.get(node) == -1) {
+                for (int i = ranges.get(node)[0]; i < ranges.get(node)[1]; i++) {
+                    if (segments.get(i).distanceTo(v) <= radius) {
+                        result.add(i);
+                    }
+                }
+                continue;
+            }
+            //left child last, such that the segments are found in order
+            stack.add(left.get(node) + 1);
+            stack.add(left.get(node));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the indices of the segments that are at most {@link #MARGIN}
+     * further from {@code v} than the closest segment, in increasing order.
+     *
+     * @param v
+     * @return
+     */
+    public List<Integer> closestSegments(Vector v) {
+        return segmentsWithin(v, distanceTo(v) + MARGIN);
+    }
+
+    /**
+     * Returns the indices of the segments {@code v} might lie on, in
+     * increasing order.
+     *
+     * @param v
+     * @return
+     */
+    public List<Integer> segmentsNear(Vector v) {
+        return segmentsWithin(v, MARGIN);
+    }
+
+    /**
+     * Returns the indices of the segments any of {@code points} might lie on,
+     * in increasing order and without duplicates.
+     *
+     * @param points
+     * @return
+     */
+    public List<Integer> segmentsNear(List<Vector> points) {
+        List<Integer> result = new ArrayList();
+        for (Vector v : points) {
+            result.addAll(segmentsNear(v));
+        }
+        result.sort(null);
+        List<Integer> filtered = new ArrayList();
+        for (int i : result) {
+            if (filtered.isEmpty() || filtered.get(filtered.size() - 1) != i) {
+                filtered.add(i);
+            }
+        }
+        return filtered;
+    }
+
+    public PartitionSegment getSegment(int i) {
+        return segments.get(i);
+    }
+}
@@ -6,7 +6,6 @@
 package gridmappartioner;
 
 import static gridmappartioner.Precision.le;
-import java.util.List;
 import nl.tue.geometrycore.geometry.Vector;
 import nl.tue.geometrycore.util.Pair;
 
@@ -35,6 +34,8 @@ public class Cut {
 
     @Override
     public int hashCode() {
+        //equals is approximate, so approximately equal cuts must have the same hash.
+        //Cuts are looked up by their endpoints in an EndpointHash instead of a hash set.
         int hash = 3;
         return hash;
     }
@@ -97,87 +98,46 @@ public class Cut {
     }
 
     /**
-     * Returns which segment the start/end-point of this cut lies on. Returns
-     * null for the pair value if it does not start on any
+     * Returns which segment of {@code p} the start/end-point of this cut lies
+     * on. Returns null for the pair value if it does not start on any
      * segment.
      *
-     * @param segments
+     * @param p
      * @return
      */
-    public Pair<PartitionSegment, PartitionSegment> getSegmentEndpoints(List<PartitionSegment> segments) {
-
-        //will hold the closest linesegment to the startvector of c
-        PartitionSegment startLs = null;
-        double startDistance = Double.MAX_VALUE;//will hold the closest linesegment to the endVector of c
-
-        PartitionSegment endLs = null;
-        double endDistance = Double.MAX_VALUE;//will hold the closest linesegment to the endVector of c
+    public Pair<PartitionSegment, PartitionSegment> getSegmentEndpoints(PartitionPolygon p) {
+        BoundaryIndex index = p.getBoundaryIndex();
+        return new Pair(closestSegment(index, start), closestSegment(index, end));
+    }
 
-        for (PartitionSegment ls : segments) {
-            double newStartDistance = ls.distanceTo(start);
-            double newEndDistance = ls.distanceTo(end);
-            if (le(newStartDistance, startDistance)) {
-                startDistance = newStartDistance;
-                startLs = ls;
-            }
-            if (le(newEndDistance, endDistance)) {
-                endDistance = newEndDistance;
-                endLs = ls;
+    /**
+     * Returns the closest segment to v. Only the candidates of the index are
+     * compared, in the order of the boundary.
+     */
+    private PartitionSegment closestSegment(BoundaryIndex index, Vector v) {
+        PartitionSegment closestLs = null;
+        double closestDistance = Double.MAX_VALUE;
+        for (int i : index.closestSegments(v)) {
+            PartitionSegment ls = index.getSegment(i);
+            double newDistance = ls.distanceTo(v);
+            if (le(newDistance, closestDistance)) {
+                closestDistance = newDistance;
+                closestLs = ls;
             }
         }
-        return new Pair(startLs, endLs);
+        return closestLs;
     }
 
     /**
-     * Computes the dilation of this cut
-     * @param p 
+     * Computes the dilation of this cut: its length divided by the shorter
+     * length of the boundary of {@code p} between its endpoints, see
+     * {@link PerimeterIndex#boundaryDistance(Vector, Vector)}.
+     *
+     * @param p
      */
     public void computeDilation(PartitionPolygon p) {
-        //Inefficent calculation. Possible to speed up using data structure.
-        
-        
         double cutLength = getLength();
-
-        //take the shortest distance between the two length
-        double length1 = 0;
-        double length2 = 0;
-        boolean addingTo1 = true;
-        for (PartitionSegment ps : p.getSegments()) {
-
-            Vector onSegment = null;// holds the endpoint that is on this segment if any
-            if (ps.onBoundary(start)) {
-                onSegment = start;
-            }
-            if (ps.onBoundary(end)) {
-                onSegment = end;
-            }
-            if (onSegment != null) {
-                //if there is an endpoint on this segment, we only add part of the length, and start adding to the other
-                if (!ps.getEnd().isApproximately(onSegment)) {
-                    //we only do this if it is either in the middle of the segment, OR at the start.
-                    //this it to prevent changing which distance to add on twice
-                    double dis = ps.getStart().distanceTo(onSegment);
-                    double remainingDis = ps.getEnd().distanceTo(onSegment);
-                    if (addingTo1) {
-                        length1 += dis;
-                        length2 += remainingDis;
-                    } else {
-                        length2 += dis;
-                        length1 += remainingDis;
-                    }
-                    //start adding to the other length.
-                    addingTo1 = !addingTo1;
-                }
-            }
-
-            if (addingTo1) {
-                length1 += ps.length();
-            } else {
-                length2 += ps.length();
-            }
-        }
-
-        double boundaryLength = Math.min(length1, length2);
+        double boundaryLength = p.getPerimeterIndex().boundaryDistance(start, end);
         this.dilation = cutLength / boundaryLength;
     }
 
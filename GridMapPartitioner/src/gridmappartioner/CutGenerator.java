@@ -8,9 +8,7 @@ package gridmappartioner;
 import gridmappartioner.mAxis.Corner;
 import gridmappartioner.mAxis.MedialAxis;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 import nl.tue.geometrycore.util.Pair;
 
 /**
@@ -55,7 +53,7 @@ public class CutGenerator {
         //for debug/illustration purposes. Print the medial axis after trimming leaf nodes
 //        ma.toIpe("medialTrim" + count +".ipe");
         //For each medial segment, define which boundary segments form it and are thus opposite of each other.
-        //These define potential cuts
+        //These define potential cuts. They are already assigned when the medial axis is constructed and are not recomputed.
         ma.assignOpposites();
 
         //for debug/illustration purposes. Print the medial axis
@@ -77,7 +75,7 @@ public class CutGenerator {
         //remove duplicate cuts
         removeDuplicateCuts(rawCuts);
         //remove cuts that start and end at the same segment. Should not happen, but precision errors are a thing and these don't form valid cus.
-        removeSameSegmentCuts(rawCuts, polygon.getSegments());
+        removeSameSegmentCuts(rawCuts, polygon);
 
         removeExteriorCuts(rawCuts, polygon);
 
@@ -87,25 +85,24 @@ public class CutGenerator {
     }
 
     /**
-     * Remove duplicate cuts.
+     * Remove duplicate cuts. Kept cuts are indexed by their endpoints. A
+     * duplicate has an endpoint close to the start of the cut, so only the
+     * cuts near the start have to be checked.
      *
      * @param rawCuts
      */
     private void removeDuplicateCuts(List<Cut> rawCuts) {
         //keep on of every cut
         List<Cut> filteredCuts = new ArrayList();
+        EndpointHash<Cut> keptCuts = new EndpointHash();
 
         for (Cut c : rawCuts) {
-            boolean present = false;
-            for (Cut cPrime : filteredCuts) {
-                if (c.equals(cPrime)) {
-                    present = true;
-                    break;
-                }
-            }
-            if (!present) {
-                filteredCuts.add(c);
+            if (keptCuts.near(c.start).contains(c)) {
+                continue;
             }
+            filteredCuts.add(c);
+            keptCuts.add(c.start, c);
+            keptCuts.add(c.end, c);
         }
         rawCuts.clear();
         rawCuts.addAll(filteredCuts);
@@ -115,28 +112,33 @@ public class CutGenerator {
      * remove cuts that start and end at the same segment.
      *
      * @param rawCuts
-     * @param segments
+     * @param polygon
      */
-    private void removeSameSegmentCuts(List<Cut> rawCuts, List<PartitionSegment> segments) {
-        Set<Cut> discardCuts = new HashSet();
+    private void removeSameSegmentCuts(List<Cut> rawCuts, PartitionPolygon polygon) {
+        //duplicates are removed already, so each discarded cut only matches itself
+        List<Cut> discardCuts = new ArrayList();
+        List<Cut> filteredCuts = new ArrayList();
         for (Cut c : rawCuts) {
-            Pair<PartitionSegment, PartitionSegment> segmentEndpoints = c.getSegmentEndpoints(segments);
+            Pair<PartitionSegment, PartitionSegment> segmentEndpoints = c.getSegmentEndpoints(polygon);
             PartitionSegment first = segmentEndpoints.getFirst();
             PartitionSegment second = segmentEndpoints.getSecond();
             //if they are the same we are done
-            if (first == second) {
-                discardCuts.add(c);
-            }
+            boolean discard = first == second;
             //if the cut is completely part of a segment it is also done,
             if (first.onBoundary(c.start) && first.onBoundary(c.end)) {
-                discardCuts.add(c);
+                discard = true;
             }
             if (second.onBoundary(c.start) && second.onBoundary(c.end)) {
+                discard = true;
+            }
+            if (discard) {
                 discardCuts.add(c);
+            } else {
+                filteredCuts.add(c);
             }
-
         }
-        rawCuts.removeAll(discardCuts);
+        rawCuts.clear();
+        rawCuts.addAll(filteredCuts);
         System.out.println("Removing " + discardCuts.size() + " that start and end on the same segment");
     }
 
@@ -150,12 +152,13 @@ public class CutGenerator {
          * Cuts can be over the exterior medial axis. Just remove these. Faster
          * to do it here than to remove the exterior medial axis itself.
          */
-        Set<Cut> discardCuts = new HashSet();
+        List<Cut> filteredCuts = new ArrayList();
         for (Cut c : rawCuts) {
-            if (!polygon.containsCut(c)) {
-                discardCuts.add(c);
+            if (polygon.containsCut(c)) {
+                filteredCuts.add(c);
             }
         }
-        rawCuts.removeAll(discardCuts);
+        rawCuts.clear();
+        rawCuts.addAll(filteredCuts);
     }
 }
@@ -0,0 +1,78 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gridmappartioner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import nl.tue.geometrycore.geometry.Vector;
+
+/**
+ * Items indexed by a point snapped to a fine grid. Points that are
+ * approximately equal are in the same or in neighbouring cells, so all items
+ * at a point approximately equal to v are returned by {@link #near(Vector)}.
+ *
+ * @author msondag
+ */
+class EndpointHash<T> {
+
+    /**
+     * Size of the cells. Far larger than {@link Precision#ACCURACY}.
+     */
+    static final double GRID = 1e-3;
+
+    private final HashMap<Long, List<T>> itemsByCell = new HashMap();
+
+    /**
+     * Adds {@code item} at point {@code v}.
+     *
+     * @param v
+     * @param item
+     */
+    void add(Vector v, T item) {
+        itemsByCell.computeIfAbsent(key(v), k -> new ArrayList()).add(item);
+    }
+
+    /**
+     * Returns the items added in the cell of {@code v} or a neighbouring cell.
+     * Items added at multiple points can occur more than once.
+     *
+     * @param v
+     * @return
+     */
+    List<T> near(Vector v) {
+        List<T> items = new ArrayList();
+        long cellX = cell(v.getX());
+        long cellY = cell(v.getY());
+        for (long dx = -1; dx <= 1; dx++) {
+            for (long dy = -1; dy <= 1; dy++) {
+                List<T> cellItems = itemsByCell.get(cellKey(cellX + dx, cellY + dy));
+                if (cellItems != null) {
+                    items.addAll(cellItems);
+                }
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Key of the cell of {@code v}.
+     *
+     * @param v
+     * @return
+     */
+    static long key(Vector v) {
+        return cellKey(cell(v.getX()), cell(v.getY()));
+    }
+
+    static long cell(double coordinate) {
+        return (long) Math.floor(coordinate / GRID);
+    }
+
+    static long cellKey(long cellX, long cellY) {
+        return cellX * 1000003L + cellY;
+    }
+}
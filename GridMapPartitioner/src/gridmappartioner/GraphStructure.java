@@ -6,12 +6,11 @@
 package gridmappartioner;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import nl.tue.geometrycore.geometry.Vector;
-import nl.tue.geometrycore.geometry.linear.Polygon;
 import nl.tue.geometrycore.util.Pair;
 
 /**
@@ -23,7 +22,36 @@ class GraphStructure {
     List<Face> faces = new ArrayList();
     List<EdgeCut> edgeCuts = new ArrayList();
 
-    HashMap<Cut, EdgeCut> cutMapping = new HashMap();
+    /**
+     * Edge of each cut, by the endpoints of the cut.
+     */
+    EndpointHash<EdgeCut> cutsByEndpoint = new EndpointHash();
+
+    /**
+     * Cuts that are applied.
+     */
+    Set<EdgeCut> usedEdgeCuts = new HashSet();
+
+    /**
+     * Whether the faces and the cuts form a forest. The cuts do not cross, so
+     * this should always hold. If it does not, the productivity is computed by
+     * traversing the faces.
+     */
+    boolean isForest = true;
+    /**
+     * Faces in the order of a depth first search over the forest. The faces in
+     * the subtree of a face form a consecutive range.
+     */
+    List<Face> preorder = new ArrayList();
+    /**
+     * Site counts in preorder, such that the sum over the subtree of a face is
+     * the amount of sites in the subtree that are still connected to the face.
+     */
+    SiteSums siteSums;
+    /**
+     * Roots of the subtrees that were cut off.
+     */
+    DeepestCover cutOffRoots;
 
     public GraphStructure(List<PartitionPolygon> polygons, List<Cut> cuts, List<Site> sites) {
 
@@ -32,18 +60,79 @@ class GraphStructure {
         addSiteCount(sites);
 
         addRelations();
+        buildForest();
     }
 
-    public boolean isProductive(Cut newCut, Set<Cut> usedCuts, int productivityThreshold) {
-        Set<EdgeCut> cutsProcessed = new HashSet();
-        for (Cut uc : usedCuts) {
-            cutsProcessed.add(cutMapping.get(uc));
+    /**
+     * Returns whether both sides of {@code newCut} contain at least
+     * {@code productivityThreshold} sites if the cut is applied after the
+     * cuts applied so far.
+     *
+     * @param newCut
+     * @param productivityThreshold
+     * @return
+     */
+    public boolean isProductive(Cut newCut, int productivityThreshold) {
+        EdgeCut ec = getEdgeCut(newCut);
+        if (!isForest) {
+            return isProductiveTraversal(ec, productivityThreshold);
+        }
+        //the cut separates the subtree of its child from the rest of the component
+        Face child = ec.child;
+        int childSites = siteSums.sum(child.enter, child.exit);
+        Face top = componentRoot(ec.getOtherFace(child));
+        int componentSites = top.componentSites;
+
+        return childSites >= productivityThreshold && componentSites - childSites >= productivityThreshold;
+    }
+
+    /**
+     * Applies {@code c}, such that it separates the faces on both sides in
+     * later calls to isProductive.
+     *
+     * @param c
+     */
+    public void applyCut(Cut c) {
+        EdgeCut ec = getEdgeCut(c);
+        usedEdgeCuts.add(ec);
+        if (!isForest) {
+            return;
+        }
+        Face child = ec.child;
+        Face top = componentRoot(ec.getOtherFace(child));
+        int childSites = siteSums.sum(child.enter, child.exit);
+        siteSums.add(child.enter, -childSites);
+        if (top.parentCut != null) {
+            //the sites were already removed from the subtrees containing top when top was cut off.
+            siteSums.add(top.enter, childSites);
         }
-        cutsProcessed.add(cutMapping.get(newCut));
+        top.componentSites -= childSites;
+        child.componentSites = childSites;
+        cutOffRoots.cover(child);
+    }
+
+    /**
+     * Returns the face closest to the root of the tree that is still connected
+     * to f.
+     */
+    private Face componentRoot(Face f) {
+        Face cutOffRoot = cutOffRoots.deepest(f.enter);
+        if (cutOffRoot != null) {
+            return cutOffRoot;
+        }
+        return f.root;
+    }
+
+    private boolean isProductiveTraversal(EdgeCut ec, int productivityThreshold) {
+        Set<EdgeCut> cutsProcessed = new HashSet(usedEdgeCuts);
+        cutsProcessed.add(ec);
 
-        EdgeCut ec = cutMapping.get(newCut);
         Face f1 = ec.face1;
         Face f2 = ec.face2;
+        if (f1 == null || f2 == null) {
+            //the cut is not on the boundary of two faces due to precision errors.
+            return false;
+        }
         //count first side of the cut
 
         int countf1 = countProductiveSites(f1, cutsProcessed, productivityThreshold);
@@ -58,6 +147,74 @@ class GraphStructure {
         return true;
     }
 
+    /**
+     * Roots every tree of faces and numbers the faces in preorder.
+     */
+    private void buildForest() {
+        Set<Face> visited = new HashSet();
+        for (Face root : faces) {
+            if (visited.contains(root)) {
+                continue;
+            }
+            visited.add(root);
+            List<Face> stack = new ArrayList();
+            stack.add(root);
+            while (!stack.isEmpty()) {
+                Face f = stack.remove(stack.size() - 1);
+                f.root = root;
+                f.enter = preorder.size();
+                preorder.add(f);
+                for (EdgeCut ec : f.adjacentCuts) {
+                    if (ec == f.parentCut) {
+                        continue;
+                    }
+                    Face other = ec.getOtherFace(f);
+                    if (other == null || visited.contains(other)) {
+                        //cut without two faces, or a cycle
+                        isForest = false;
+                        continue;
+                    }
+                    visited.add(other);
+                    other.parentCut = ec;
+                    other.depth = f.depth + 1;
+                    ec.child = other;
+                    stack.add(other);
+                }
+            }
+        }
+        for (EdgeCut ec : edgeCuts) {
+            if (ec.child == null) {
+                isForest = false;
+            }
+        }
+        if (!isForest) {
+            System.err.println("Faces and cuts do not form a forest. Productivity is computed by traversal.");
+            return;
+        }
+
+        //the subtree of a face ends after the subtrees of its children.
+        int[] subtreeSize = new int[preorder.size()];
+        for (int i = preorder.size() - 1; i >= 0; i--) {
+            Face f = preorder.get(i);
+            subtreeSize[i]++;
+            f.exit = f.enter + subtreeSize[i] - 1;
+            if (f.parentCut != null) {
+                subtreeSize[f.parentCut.getOtherFace(f).enter] += subtreeSize[i];
+            }
+        }
+
+        siteSums = new SiteSums(preorder.size());
+        for (Face f : preorder) {
+            siteSums.add(f.enter, f.siteCount);
+        }
+        for (Face f : preorder) {
+            if (f.root == f) {
+                f.componentSites = siteSums.sum(f.enter, f.exit);
+            }
+        }
+        cutOffRoots = new DeepestCover(preorder.size());
+    }
+
     private void addFaces(List<PartitionPolygon> polygons) {
         for (PartitionPolygon p : polygons) {
             Face f = new Face(p);
@@ -69,56 +226,100 @@ class GraphStructure {
         for (Cut c : cuts) {
             EdgeCut e = new EdgeCut(c);
             edgeCuts.add(e);
-            cutMapping.put(c, e);
+            cutsByEndpoint.add(c.start, e);
+            cutsByEndpoint.add(c.end, e);
+        }
+    }
+
+    /**
+     * Returns the edge of a cut that is approximately equal to {@code c}.
+     * Only the edges with an endpoint near the start of {@code c} are
+     * compared.
+     */
+    private EdgeCut getEdgeCut(Cut c) {
+        for (EdgeCut ec : cutsByEndpoint.near(c.start)) {
+            if (ec.cut.equals(c)) {
+                return ec;
+            }
         }
+        return null;
     }
 
     private void addSiteCount(List<Site> sites) {
-        //count the amount of sites in each polygon
+        //count the amount of sites in each polygon. Faces with less than 3 vertices are skipped, one of the cuts does not make sense.
+        List<List<Vector>> faceVertices = new ArrayList();
+        for (Face f : faces) {
+            faceVertices.add(f.vertices);
+        }
+        PointLocation location = new PointLocation(faceVertices);
         for (Site s : sites) {
-            for (Face f : faces) {
-                if (f.vertices.size() < 3) {
-                    //one of the cuts does not make sense.
-                    continue;
-                }
-                if (f.containsPoint(s.point)) {
-                    f.siteCount++;
-                    break;//site can only be in one
-                }
+            int i = location.locate(s.point);
+            if (i != -1) {
+                faces.get(i).siteCount++;
             }
         }
     }
 
     /**
-     * Add the relations between the faces and the edgeCuts
+     * Add the relations between the faces and the edgeCuts. The cuts are
+     * hashed by their endpoints, such that only the cuts near the start of a
+     * segment of the face are compared to it.
      */
     private void addRelations() {
         for (Face f : faces) {
-            for (EdgeCut ec : edgeCuts) {
-                if (f.cutPartOfBoundary(ec)) {
-                    f.addEdgeCut(ec);
-                    ec.addFace(f);
+            for (PartitionSegment ps : f.segments) {
+                for (EdgeCut ec : cutsByEndpoint.near(ps.getStart())) {
+                    if (!f.adjacentCuts.contains(ec) && ec.segment.hasSameEndpoints(ps)) {
+                        f.addEdgeCut(ec);
+                        ec.addFace(f);
+                    }
                 }
             }
         }
     }
 
+    /**
+     * Counts the sites in the faces reached from f over cuts that are not
+     * processed, and marks those cuts as processed. Faces with at least
+     * {@code productivityThreshold} sites are counted but not traversed
+     * further. Goes over the faces in the same order as a recursive depth
+     * first search, with a stack of the cuts each face still has to go over.
+     */
     private int countProductiveSites(Face f, Set<EdgeCut> edgeCutsProcessed, int productivityThreshold) {
         int count = f.siteCount;
         if (count >= productivityThreshold) {
             return count;
         }
 
-        for (EdgeCut ec : f.adjacentCuts) {
-            if (!edgeCutsProcessed.contains(ec)) {
-                //go over the cut and sum those
-                Face otherFace = ec.getOtherFace(f);
-                edgeCutsProcessed.add(ec);//make sure we don't go back over the cut
-
-                count += countProductiveSites(otherFace, edgeCutsProcessed, productivityThreshold);
+        List<Face> faceStack = new ArrayList();
+        List<Iterator<EdgeCut>> cutStack = new ArrayList();
+        faceStack.add(f);
+        cutStack.add(f.adjacentCuts.iterator());
+        while (!faceStack.isEmpty()) {
+            int top = faceStack.size() - 1;
+            Iterator<EdgeCut> cuts = cutStack.get(top);
+            if (!cuts.hasNext()) {
+                faceStack.remove(top);
+                cutStack.remove(top);
+                continue;
+            }
+            EdgeCut ec = cuts.next();
+            if (edgeCutsProcessed.contains(ec)) {
+                continue;
+            }
+            //go over the cut and sum those
+            Face otherFace = ec.getOtherFace(faceStack.get(top));
+            edgeCutsProcessed.add(ec);//make sure we don't go back over the cut
+            if (otherFace == null) {
+                //the cut is on the boundary of a single face due to precision errors.
+                continue;
+            }
+            count += otherFace.siteCount;
+            if (otherFace.siteCount < productivityThreshold) {
+                faceStack.add(otherFace);
+                cutStack.add(otherFace.adjacentCuts.iterator());
             }
         }
-
         return count;
     }
 
@@ -126,6 +327,15 @@ class GraphStructure {
 
         int siteCount = 0;
         Set<EdgeCut> adjacentCuts = new HashSet();
+        //position in the forest
+        Face root;
+        EdgeCut parentCut;
+        int depth = 0;
+        int enter, exit;
+        /**
+         * Sites connected to this face, if it is the root of a component.
+         */
+        int componentSites = 0;
         List<PartitionSegment> segments;
         List<Vector> vertices;
 
@@ -134,40 +344,24 @@ class GraphStructure {
             this.vertices = new ArrayList(p.vertices);
         }
 
-        private boolean cutPartOfBoundary(EdgeCut ec) {
-            for (PartitionSegment ps : segments) {
-                if (ec.segment.hasSameEndpoints(ps)) {
-                    return true;
-                }
-            }
-            return false;
-        }
-
         private void addEdgeCut(EdgeCut ec) {
             adjacentCuts.add(ec);
         }
-
-        public boolean containsPoint(Vector point) {
-            if (point.getX() == Double.POSITIVE_INFINITY || point.getX() == Double.NEGATIVE_INFINITY) {
-                return false;
-            }
-            if (point.getY() == Double.POSITIVE_INFINITY || point.getY() == Double.NEGATIVE_INFINITY) {
-                return false;
-            }
-
-            //can use direct implementation instead of object, but performance not instantiation not that much of an issue.
-            Polygon p = new Polygon(vertices);
-            return p.contains(point);
-        }
     }
 
     private class EdgeCut {
 
         Face face1;
         Face face2;
+        /**
+         * Face of the two that is further from the root.
+         */
+        Face child;
+        Cut cut;
         PartitionSegment segment;
 
         private EdgeCut(Cut c) {
+            this.cut = c;
             this.segment = c.segment;
         }
 
@@ -191,4 +385,79 @@ class GraphStructure {
 
     }
 
+    /**
+     * Fenwick tree over the site counts in preorder.
+     */
+    private class SiteSums {
+
+        private final int[] tree;
+
+        private SiteSums(int size) {
+            tree = new int[size + 1];
+        }
+
+        private void add(int i, int value) {
+            for (i++; i < tree.length; i += i & -i) {
+                tree[i] += value;
+            }
+        }
+
+        /**
+         * Sum of positions from through to, inclusive.
+         */
+        private int sum(int from, int to) {
+            return prefixSum(to + 1) - prefixSum(from);
+        }
+
+        private int prefixSum(int i) {
+            int sum = 0;
+            for (; i > 0; i -= i & -i) {
+                sum += tree[i];
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * Segment tree over the preorder that stores the subtrees that are cut
+     * off. Subtrees are nested or disjoint, so the deepest subtree covering a
+     * face is the component it is in.
+     */
+    private class DeepestCover {
+
+        private final int size;
+        private final Face[] deepest;
+
+        private DeepestCover(int size) {
+            this.size = size;
+            deepest = new Face[2 * size];
+        }
+
+        private void cover(Face f) {
+            for (int l = f.enter + size, r = f.exit + size + 1; l < r; l /= 2, r /= 2) {
+                if (l % 2 == 1) {
+                    update(l++, f);
+                }
+                if (r % 2 == 1) {
+                    update(--r, f);
+                }
+            }
+        }
+
+        private void update(int node, Face f) {
+            if (deepest[node] == null || deepest[node].depth < f.depth) {
+                deepest[node] = f;
+            }
+        }
+
+        private Face deepest(int i) {
+            Face best = null;
+            for (int node = i + size; node > 0; node /= 2) {
+                if (deepest[node] != null && (best == null || best.depth < deepest[node].depth)) {
+                    best = deepest[node];
+                }
+            }
+            return best;
+        }
+    }
 }
@@ -5,15 +5,20 @@
  */
 package gridmappartioner;
 
+import gridmappartioner.mAxis.MedialAxis;
+import gridmappartioner.mAxis.MedialAxisWorkerPool;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import nl.tue.geometrycore.geometry.BaseGeometry;
@@ -42,11 +47,20 @@ public class GridMapPartioner {
     File inputIpeFile;
     File outputIpeFile;
     File siteDataFile;
+    /**
+     * The partition is also written to this file in the binary interchange
+     * format. Null if not used.
+     */
+    File outputBinaryFile;
 
     List<Site> sites;
 
     private double dilationThreshold;
     private int productivityThreshold; 
+    /**
+     * Amount of input polygons that are partitioned concurrently.
+     */
+    private int threads = 1;
 
     /**
      * @param args the command line arguments
@@ -63,6 +77,9 @@ public class GridMapPartioner {
     public GridMapPartioner(String[] args) throws IOException {
         parseArgs(args);
         partition();
+        if (MedialAxis.workerPool != null) {
+            MedialAxis.workerPool.close();
+        }
         Utility.printTimer();
     }
 
@@ -73,68 +90,145 @@ public class GridMapPartioner {
         partition();
     }
 
+    /**
+     * Partitioner that is used from other programs through
+     * {@link #partition(List, List)}, without reading or writing files.
+     *
+     * @param dilationThreshold
+     * @param productivityThreshold
+     * @param threads amount of input polygons that are partitioned
+     * concurrently
+     */
+    public GridMapPartioner(double dilationThreshold, int productivityThreshold, int threads) {
+        this.dilationThreshold = dilationThreshold;
+        this.productivityThreshold = productivityThreshold;
+        this.threads = threads;
+    }
+
     HashMap<String, Long> times = new HashMap();
 
     private void partition() throws IOException {
-        List<PartitionPolygon> inputPolygons = readInputPolygons();
+        List<PartitionPolygon> inputPolygons = new ArrayList();
+        for (Polygon p : readPolygons(inputIpeFile)) {
+            inputPolygons.add(toPartitionPolygon(p));
+        }
         sites = readPointDataFile();
 
+        List<PartitionPolygon> partitionedPolygons = partitionPolygons(inputPolygons);
+
+        writeToIpe(partitionedPolygons);
+        if (outputBinaryFile != null) {
+            writeToBinary(partitionedPolygons);
+        }
+
+        for (String key : times.keySet()) {
+            System.out.println(key + ":" + times.get(key));
+        }
+    }
+
+    /**
+     * Partitions {@code inputPolygons} such that each part holds enough of
+     * {@code sites}. The parts are returned in the order and with the
+     * precision in which they are written to the ipe output.
+     *
+     * @param inputPolygons
+     * @param sites
+     * @return
+     */
+    public List<Polygon> partition(List<Polygon> inputPolygons, List<Site> sites) {
+        this.sites = sites;
+        List<PartitionPolygon> polygons = new ArrayList();
+        for (Polygon p : inputPolygons) {
+            polygons.add(toPartitionPolygon(p));
+        }
+
+        List<PartitionPolygon> partitionedPolygons = partitionPolygons(polygons);
+        prepareOutput(partitionedPolygons);
+
+        List<Polygon> outputPolygons = new ArrayList();
+        for (PartitionPolygon pp : partitionedPolygons) {
+            outputPolygons.add(pp.toPolygon());
+        }
+        return outputPolygons;
+    }
+
+    /**
+     * Partitions each input polygon, and adds the vertices required to make
+     * neighboring parts share their boundary.
+     */
+    private List<PartitionPolygon> partitionPolygons(List<PartitionPolygon> inputPolygons) {
+        List<List<Vector>> inputVertices = new ArrayList();
+        for (PartitionPolygon p : inputPolygons) {
+            inputVertices.add(p.getVertices());
+        }
+        PointLocation location = new PointLocation(inputVertices);
         for (Site s : sites) {
-            boolean contained = false;
-            for (PartitionPolygon p : inputPolygons) {
-                if (p.containsPoint(s.point)) {
-                    contained = true;
-                }
-            }
+            boolean contained = location.locate(s.point) != -1;
             if (!contained) {
                 System.err.println("Not all points are in the inputPolygons:" + s.point + s.label);
             }
         }
 
         List<PartitionPolygon> partitionedPolygons = new ArrayList();
-        for (PartitionPolygon p : inputPolygons) {
-            List<PartitionPolygon> partitions = partitionPolygon(p);
-            partitionedPolygons.addAll(partitions);
+        if (threads <= 1 || inputPolygons.size() <= 1) {
+            for (PartitionPolygon p : inputPolygons) {
+                List<PartitionPolygon> partitions = partitionPolygon(p);
+                partitionedPolygons.addAll(partitions);
+            }
+        } else {
+            //input polygons are independent. Results are collected in input order such that the output is deterministic.
+            ForkJoinPool pool = new ForkJoinPool(Math.min(threads, inputPolygons.size()));
+            List<ForkJoinTask<List<PartitionPolygon>>> tasks = new ArrayList();
+            for (PartitionPolygon p : inputPolygons) {
+                tasks.add(pool.submit(() -> partitionPolygon(p)));
+            }
+            for (ForkJoinTask<List<PartitionPolygon>> task : tasks) {
+                partitionedPolygons.addAll(task.join());
+            }
+            pool.shutdown();
         }
 
         //in case the polygons are neighboring, we need to add vertices at cut places.
         addExtraVertices(partitionedPolygons);
 
-        
-        writeToIpe(partitionedPolygons);
-
-        for (String key : times.keySet()) {
-            System.out.println(key + ":" + times.get(key));
-        }
+        return partitionedPolygons;
     }
 
-    private List<PartitionPolygon> readInputPolygons() throws IOException {
+    /**
+     * Returns the polygons in the ipe file at {@code inputIpeFile}.
+     *
+     * @param inputIpeFile
+     * @return
+     * @throws IOException
+     */
+    public static List<Polygon> readPolygons(File inputIpeFile) throws IOException {
         IPEReader reader = IPEReader.fileReader(inputIpeFile);
         List<ReadItem> items = reader.read();
 
-        List<PartitionPolygon> polygons = new ArrayList();
+        List<Polygon> polygons = new ArrayList();
 
         for (ReadItem item : items) {
             BaseGeometry geometry = item.getGeometry();
             if (geometry.getGeometryType() == GeometryType.POLYGON) {
-                Polygon p = (Polygon) geometry.toGeometry();
-
-                List<PartitionSegment> psSegment = new ArrayList();
-                for (LineSegment ls : p.edges()) {
-                    psSegment.add(new PartitionSegment(ls));
-                }
-
-                PartitionPolygon pp = new PartitionPolygon(psSegment);
-
-                pp.removeDegeneracies();
-
-                polygons.add(pp);
+                polygons.add((Polygon) geometry.toGeometry());
             }
         }
 
         return polygons;
     }
 
+    private PartitionPolygon toPartitionPolygon(Polygon p) {
+        List<PartitionSegment> psSegment = new ArrayList();
+        for (LineSegment ls : p.edges()) {
+            psSegment.add(new PartitionSegment(ls));
+        }
+
+        PartitionPolygon pp = new PartitionPolygon(psSegment);
+
+        pp.removeDegeneracies();
+        return pp;
+    }
+
     /**
      * Partitions a specific polygon
      *
@@ -156,7 +250,6 @@ public class GridMapPartioner {
         Utility.startTimer("graphStructure");
 
         GraphStructure gs = generateGraphStructure(inputPolygon, cuts);
-        Set<Cut> usedCuts = new HashSet();
 
         Utility.endTimer("graphStructure");
 
@@ -165,6 +258,7 @@ public class GridMapPartioner {
         //process each cut, and store the resulting polygons
         List<PartitionPolygon> partitionedPolygons = new ArrayList();
         partitionedPolygons.add(inputPolygon);
+        PieceIndex pieceIndex = new PieceIndex(inputPolygon, cuts.size());
         for (Cut c : cuts) {
             iteration++;
             if (iteration % 10 == 0) {
@@ -172,39 +266,34 @@ public class GridMapPartioner {
             }
 
             //get the new partitionPolygons after this cut.
-            //We do not know in which partition the cut is, so we have to go in all of them.
-            List<PartitionPolygon> updatedList = new ArrayList();
-            for (PartitionPolygon p : partitionedPolygons) {
-                if (!p.containsCut(c)) {
-                    //not in partition polygon, so no change.
-                    updatedList.add(p);
-                } else {
-                    Utility.startTimer("dilation");
-                    //need to recompute dilation as the polygon gets chopped up
-                    c.computeDilation(p);
-                    if (c.dilation > dilationThreshold) {
-                        //skip this cut, it has too little dilation
-                        updatedList.add(p);
-                        continue;
-                    }
-                    Utility.endTimer("dilation");
-                    Utility.startTimer("productive");
-                    //check if the cut is productive
-                    boolean productive = gs.isProductive(c, usedCuts, productivityThreshold);
-                    Utility.endTimer("productive");
-                    if (productive) {
-                        Pair<PartitionPolygon, PartitionPolygon> splitPolygons = p.splitPolygon(c);
-                        updatedList.add(splitPolygons.getFirst());
-                        updatedList.add(splitPolygons.getSecond());
-                        usedCuts.add(c);
-                        System.out.println("productive");
-                    } else {
-                        updatedList.add(p);
-                    }
-                }
+            //We do not know in which partition the cut is, but only the pieces whose bounding box contains it are tested.
+            PartitionPolygon p = pieceIndex.getOwner(c, Comparator.comparingInt(partitionedPolygons::indexOf));
+            if (p == null) {
+                //not in any partition polygon, so no change.
+                continue;
+            }
+            Utility.startTimer("dilation");
+            //need to recompute dilation as the polygon gets chopped up
+            c.computeDilation(p);
+            Utility.endTimer("dilation");
+            if (c.dilation > dilationThreshold) {
+                //skip this cut, it has too little dilation
+                continue;
+            }
+            Utility.startTimer("productive");
+            //check if the cut is productive
+            boolean productive = gs.isProductive(c, productivityThreshold);
+            Utility.endTimer("productive");
+            if (productive) {
+                Pair<PartitionPolygon, PartitionPolygon> splitPolygons = p.splitPolygon(c);
+                //Split polygons are replaced in place by their two parts.
+                int i = partitionedPolygons.indexOf(p);
+                partitionedPolygons.set(i, splitPolygons.getFirst());
+                partitionedPolygons.add(i + 1, splitPolygons.getSecond());
+                pieceIndex.split(p, splitPolygons.getFirst(), splitPolygons.getSecond());
+                gs.applyCut(c);
+                System.out.println("productive");
             }
-            //went through all the polygons and updated the list
-            partitionedPolygons = updatedList;
         }
 
         return partitionedPolygons;
@@ -216,6 +305,40 @@ public class GridMapPartioner {
         fileWriter.initialize();
         fileWriter.newPage();
 
+        prepareOutput(outputPolygons);
+
+        for (PartitionPolygon pp : outputPolygons) {
+            fileWriter.appendCustomPathCommand(pp.toIpe());
+        }
+        fileWriter.close();
+
+    }
+
+    /**
+     * Writes the polygons in the binary interchange format. The polygons have
+     * been prepared by {@link #writeToIpe(List)} already, such that the
+     * vertices and fill colors are the same as those in the ipe file.
+     */
+    private void writeToBinary(List<PartitionPolygon> outputPolygons) throws IOException {
+        BinaryInterchange.Writer writer = new BinaryInterchange.Writer(BinaryInterchange.PARTITION);
+        for (PartitionPolygon pp : outputPolygons) {
+            Polygon p = pp.toPolygon();
+            double[] xs = new double[p.vertexCount()];
+            double[] ys = new double[p.vertexCount()];
+            for (int i = 0; i < p.vertexCount(); i++) {
+                xs[i] = p.vertex(i).getX();
+                ys[i] = p.vertex(i).getY();
+            }
+            //regions are not labeled yet
+            writer.addRegion(xs, ys, null, 0, 0, -1, pp.getFillColor().getRGB());
+        }
+        writer.write(outputBinaryFile.toPath());
+    }
+
+    /**
+     * Sorts the polygons from bottom to top and fixes their precision.
+     */
+    private void prepareOutput(List<PartitionPolygon> outputPolygons) {
         Collections.sort(outputPolygons, (PartitionPolygon p1, PartitionPolygon p2) -> (Double.compare(p1.getMinY(), p2.getMinY())));
 
         for (PartitionPolygon pp : outputPolygons) {
@@ -223,10 +346,7 @@ public class GridMapPartioner {
             pp.fixedPrecision(3);
             //this might cause degeneracies, so remove those.
             pp.removeDegeneracies();
-            fileWriter.appendCustomPathCommand(pp.toIpe());
         }
-        fileWriter.close();
-
     }
 
     private void sortCutsByLength(List<Cut> cuts) {
@@ -281,6 +401,21 @@ public class GridMapPartioner {
         productivity.setRequired(true);
         options.addOption(productivity);
 
+        Option cgal = new Option("cgal", "cgal", false, "compute the medial axis with the external CGAL executable instead of in Java");
+        options.addOption(cgal);
+
+        Option threadOption = new Option("threads", "threads", true, "amount of input polygons that are partitioned concurrently. Default 1");
+        options.addOption(threadOption);
+
+        Option worker = new Option("worker", "worker", true, "command of a medial axis worker process. Workers are started once and reused for all polygons");
+        options.addOption(worker);
+
+        Option workers = new Option("workers", "workers", true, "amount of medial axis worker processes. Default 1");
+        options.addOption(workers);
+
+        Option binaryOutput = new Option("binaryOutput", "binaryOutput", true, "also write the partition to this location in the binary interchange format");
+        options.addOption(binaryOutput);
+
         CommandLineParser parser = new DefaultParser();
         HelpFormatter formatter = new HelpFormatter();
         CommandLine cmd = null;
@@ -296,57 +431,99 @@ public class GridMapPartioner {
         inputIpeFile = new File(cmd.getOptionValue("input"));
         siteDataFile = new File(cmd.getOptionValue("sites"));
         outputIpeFile = new File(cmd.getOptionValue("output"));
+        if (cmd.hasOption("binaryOutput")) {
+            outputBinaryFile = new File(cmd.getOptionValue("binaryOutput"));
+        }
 
         dilationThreshold = Double.parseDouble(cmd.getOptionValue("dilation", "" + dilationThreshold));
         productivityThreshold = Integer.parseInt(cmd.getOptionValue("productivity", "" + productivityThreshold));
+        threads = Integer.parseInt(cmd.getOptionValue("threads", "1"));
+        MedialAxis.useCgal = cmd.hasOption("cgal");
+        if (cmd.hasOption("worker")) {
+            int workerCount = Integer.parseInt(cmd.getOptionValue("workers", "1"));
+            try {
+                MedialAxis.workerPool = MedialAxisWorkerPool.fromCommandLine(cmd.getOptionValue("worker"), workerCount);
+            } catch (IOException ex) {
+                Logger.getLogger(GridMapPartioner.class.getName()).log(Level.SEVERE, null, ex);
+                System.exit(1);
+            }
+        }
     }
 
     private void addExtraVertices(List<PartitionPolygon> partitionedPolygons) {
-        //inefficient, can use cuts instead
         System.out.println("adding extra vertices");
         //Add a vertex if it ends on the interior of a segment from a different polygon.
-        for (PartitionPolygon p1 : partitionedPolygons) {
-            for (Vector v : p1.getVertices()) {
-                for (PartitionPolygon p2 : partitionedPolygons) {
-                    if (p1.equals(p2)) {
+        //The segments are hashed, such that only the segments near a vertex are checked.
+        List<PartitionSegment> segments = new ArrayList();
+        List<Integer> segmentPolygon = new ArrayList();
+        double totalLength = 0;
+        for (int i = 0; i < partitionedPolygons.size(); i++) {
+            for (PartitionSegment s : partitionedPolygons.get(i).getSegments()) {
+                segments.add(s);
+                segmentPolygon.add(i);
+                totalLength += s.length();
+            }
+        }
+        SegmentHash<Integer> segmentHash = new SegmentHash(totalLength / Math.max(1, segments.size()));
+        for (int j = 0; j < segments.size(); j++) {
+            segmentHash.add(segments.get(j), j);
+        }
+
+        //find the vertices that have to be added to each segment
+        HashMap<Integer, List<Vector>> splitVertices = new HashMap();
+        for (int i = 0; i < partitionedPolygons.size(); i++) {
+            for (Vector v : partitionedPolygons.get(i).getVertices()) {
+                for (int j : segmentHash.near(v)) {
+                    PartitionSegment s = segments.get(j);
+                    if (segmentPolygon.get(j) == i || !s.onBoundary(v) || s.isApproxEndpoint(v)) {
                         continue;
                     }
-                    PartitionSegment toSplit = null;
-                    for (PartitionSegment s : p2.getSegments()) {
-                        if (s.onBoundary(v) && !s.isApproxEndpoint(v)) {
-                            toSplit = s;
-                            break;
-                        }
-                    }
-                    if (toSplit != null) {
-                        toSplit.splitSegment(v);
+                    List<Vector> vertices = splitVertices.computeIfAbsent(j, k -> new ArrayList());
+                    if (!vertices.stream().anyMatch(w -> w.isApproximately(v))) {
+                        vertices.add(v);
                     }
                 }
             }
         }
+
+        //split each segment at its vertices, going from its start to its end.
+        for (int j : splitVertices.keySet()) {
+            PartitionSegment toSplit = segments.get(j);
+            Vector start = toSplit.getStart();
+            List<Vector> vertices = splitVertices.get(j);
+            vertices.sort((Vector v1, Vector v2) -> Double.compare(start.distanceTo(v1), start.distanceTo(v2)));
+            for (Vector v : vertices) {
+                toSplit = toSplit.splitSegment(v).getSecond();
+            }
+        }
     }
 
     private GraphStructure generateGraphStructure(PartitionPolygon inputP, List<Cut> cuts) {
-        List<Cut> remainingCuts = new ArrayList(cuts);
-
         PartitionPolygon inputPCopy = inputP.copy();
-        
-        List<PartitionPolygon> polygons = new ArrayList();
-        polygons.add(inputPCopy);
-
-        while (!remainingCuts.isEmpty()) {
-            Cut c = remainingCuts.get(0);
-            for (PartitionPolygon p : polygons) {
-                if (p.containsCut(c)) {
-                    Pair<PartitionPolygon, PartitionPolygon> splitPolygons = p.splitPolygon(c);
-                    polygons.add(splitPolygons.getFirst());
-                    polygons.add(splitPolygons.getSecond());
-                    polygons.remove(p);
-                    break;
-                }
+
+        //split polygons are removed, and their parts are added at the end.
+        Set<PartitionPolygon> polygonSet = new LinkedHashSet();
+        polygonSet.add(inputPCopy);
+
+        //parts are added at the end of the set, so the order of the set is the order in which pieces were added.
+        HashMap<PartitionPolygon, Integer> addedAt = new HashMap();
+        addedAt.put(inputPCopy, 0);
+        int added = 1;
+        PieceIndex pieceIndex = new PieceIndex(inputPCopy, cuts.size());
+        for (Cut c : cuts) {
+            PartitionPolygon p = pieceIndex.getOwner(c, Comparator.comparing(addedAt::get));
+            if (p != null) {
+                Pair<PartitionPolygon, PartitionPolygon> splitPolygons = p.splitPolygon(c);
+                polygonSet.remove(p);
+                polygonSet.add(splitPolygons.getFirst());
+                polygonSet.add(splitPolygons.getSecond());
+                addedAt.remove(p);
+                addedAt.put(splitPolygons.getFirst(), added++);
+                addedAt.put(splitPolygons.getSecond(), added++);
+                pieceIndex.split(p, splitPolygons.getFirst(), splitPolygons.getSecond());
             }
-            remainingCuts.remove(0);
         }
+        List<PartitionPolygon> polygons = new ArrayList(polygonSet);
         //Polygon fully partitioned. start generating the graph
         GraphStructure gs = new GraphStructure(polygons, cuts, sites);
         return gs;
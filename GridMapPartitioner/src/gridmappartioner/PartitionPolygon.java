@@ -12,6 +12,7 @@ import nl.tue.geometrycore.geometry.BaseGeometry;
 import nl.tue.geometrycore.geometry.Vector;
 import nl.tue.geometrycore.geometry.linear.LineSegment;
 import nl.tue.geometrycore.geometry.linear.Polygon;
+import nl.tue.geometrycore.geometry.linear.Rectangle;
 import nl.tue.geometrycore.util.Pair;
 
 /**
@@ -39,6 +40,27 @@ public class PartitionPolygon {
      */
     protected Cut cut2 = null;
 
+    /**
+     * Cumulative perimeter of the segments. Built when first needed and
+     * cleared whenever the segments change.
+     */
+    private PerimeterIndex perimeterIndex = null;
+    /**
+     * Spatial index of the segments. Built when first needed and cleared
+     * whenever the segments change.
+     */
+    private BoundaryIndex boundaryIndex = null;
+    /**
+     * Bounding box of the vertices. Built when first needed and cleared
+     * whenever the segments change.
+     */
+    private Rectangle boundingBox = null;
+    /**
+     * Fill color of the polygon in the last call to {@link #toIpe()}. Null
+     * if it has not been written yet.
+     */
+    private Color fillColor = null;
+
     /**
      * Makes the partition polygon from the segment. Assigns the segments to
      * this polygon. Segments have to be in order
@@ -79,6 +101,7 @@ public class PartitionPolygon {
 
     private void initialize(List<PartitionSegment> segments) {
         this.segments = segments;
+        segmentsChanged();
         for (PartitionSegment ps : segments) {
             ps.setPartitionPolygon(this);
         }
@@ -152,7 +175,7 @@ public class PartitionPolygon {
      */
     private void splitOnCut(Cut c) {
 
-        Pair<PartitionSegment, PartitionSegment> segmentEndPoints = c.getSegmentEndpoints(segments);
+        Pair<PartitionSegment, PartitionSegment> segmentEndPoints = c.getSegmentEndpoints(this);
         PartitionSegment startLs = segmentEndPoints.getFirst();
         PartitionSegment endLs = segmentEndPoints.getSecond();
 
@@ -183,6 +206,7 @@ public class PartitionPolygon {
         segments.remove(original);
         segments.add(originalIndex, l1);
         segments.add(originalIndex + 1, l2);
+        segmentsChanged();
 
         //update the vertices
         //need to go manually through the vertices since equals method is not overridden for vector.
@@ -199,6 +223,37 @@ public class PartitionPolygon {
 
     }
 
+    private void segmentsChanged() {
+        perimeterIndex = null;
+        boundaryIndex = null;
+        boundingBox = null;
+    }
+
+    /**
+     * Returns the cumulative perimeter of the segments of this polygon.
+     *
+     * @return
+     */
+    PerimeterIndex getPerimeterIndex() {
+        if (perimeterIndex == null) {
+            perimeterIndex = new PerimeterIndex(segments, getBoundaryIndex());
+        }
+        return perimeterIndex;
+    }
+
+    /**
+     * Returns the spatial index of the segments of this polygon. The indices
+     * it returns are indices in {@link #getSegments()}.
+     *
+     * @return
+     */
+    public BoundaryIndex getBoundaryIndex() {
+        if (boundaryIndex == null) {
+            boundaryIndex = new BoundaryIndex(segments);
+        }
+        return boundaryIndex;
+    }
+
     /**
      * Returns whether the cut c is inside this partition polygon
      *
@@ -230,6 +285,18 @@ public class PartitionPolygon {
         return segments;
     }
 
+    /**
+     * The box should not be changed
+     *
+     * @return
+     */
+    public Rectangle getBoundingBox() {
+        if (boundingBox == null) {
+            boundingBox = Rectangle.byBoundingBox(vertices);
+        }
+        return boundingBox;
+    }
+
     public boolean containsPoint(Vector point) {
         if (point.getX() == Double.POSITIVE_INFINITY || point.getX() == Double.NEGATIVE_INFINITY) {
             return false;
@@ -238,6 +305,11 @@ public class PartitionPolygon {
             return false;
         }
 
+        //most points are tested against polygons far away, which the bounding box rules out quickly.
+        if (!getBoundingBox().contains(point, Precision.ACCURACY)) {
+            return false;
+        }
+
         //can use direct implementation instead of object, but performance not instantiation not that much of an issue.
         Polygon p = new Polygon(vertices);
         return p.contains(point);
@@ -265,6 +337,7 @@ public class PartitionPolygon {
         String ipeString = "";
 
         Color c = ColorPicker.getNewColor();
+        fillColor = c;
 
         Double red = ((double) c.getRed()) / 255.0;
         Double green = ((double) c.getGreen()) / 255.0;
@@ -288,6 +361,25 @@ public class PartitionPolygon {
         return ipeString;
     }
 
+    public Color getFillColor() {
+        return fillColor;
+    }
+
+    /**
+     * Returns this polygon with the vertices that {@link #toIpe()} writes.
+     *
+     * @return
+     */
+    public Polygon toPolygon() {
+        List<Vector> outputVertices = new ArrayList();
+        outputVertices.add(segments.get(0).getStart().clone());
+        for (int i = 0; i < segments.size() - 1; i++) {
+            //skip the last one as it ends in the start again.
+            outputVertices.add(segments.get(i).getEnd().clone());
+        }
+        return new Polygon(outputVertices);
+    }
+
     public boolean isInteriorSegment(LineSegment ls) {
         return containsPoint(ls.getPointAlongPerimeter(0.01));
     }
@@ -334,6 +426,7 @@ public class PartitionPolygon {
             PartitionSegment ps = new PartitionSegment(v1, v2, this);
             segments.add(ps);
         }
+        segmentsChanged();
     }
 
     /**
@@ -353,6 +446,7 @@ public class PartitionPolygon {
         for (Vector v : vertices) {
             v.set(fixedPrecision(v, d));
         }
+        segmentsChanged();
     }
 
     private Vector fixedPrecision(Vector v, int digits) {
@@ -7,6 +7,7 @@ package gridmappartioner;
 
 import nl.tue.geometrycore.geometry.Vector;
 import nl.tue.geometrycore.geometry.linear.LineSegment;
+import nl.tue.geometrycore.util.Pair;
 
 /**
  *
@@ -52,8 +53,9 @@ public class PartitionSegment extends LineSegment {
      * Splits the segment into two at the specified position
      *
      * @param position
+     * @return the segments before and after position
      */
-    public void splitSegment(Vector position) {
+    public Pair<PartitionSegment, PartitionSegment> splitSegment(Vector position) {
         Vector start = getStart();
         Vector end = getEnd();
 
@@ -63,6 +65,7 @@ public class PartitionSegment extends LineSegment {
 
         //replace the segment with the two subsegments
         p.replaceSegment(this, l1, l2);
+        return new Pair(l1, l2);
     }
 
     public void setPartitionPolygon(PartitionPolygon p) {
@@ -0,0 +1,110 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gridmappartioner;
+
+import java.util.Arrays;
+import java.util.List;
+import nl.tue.geometrycore.geometry.Vector;
+
+/**
+ * Cumulative perimeter of a partition polygon. Uses the boundary index of the
+ * polygon to find the segments a point lies on. Used to compute the distance
+ * along the boundary between two points on the boundary without walking over
+ * all segments.
+ *
+ * @author msondag
+ */
+class PerimeterIndex {
+
+    private final List<PartitionSegment> segments;
+    /**
+     * cumulativeLength[i] is the length of the boundary before segment i.
+     * cumulativeLength[n] is the perimeter.
+     */
+    private final double[] cumulativeLength;
+    private final BoundaryIndex boundaryIndex;
+
+    PerimeterIndex(List<PartitionSegment> segments, BoundaryIndex boundaryIndex) {
+        this.segments = segments;
+        int n = segments.size();
+        cumulativeLength = new double[n + 1];
+        for (int i = 0; i < n; i++) {
+            cumulativeLength[i + 1] = cumulativeLength[i] + segments.get(i).length();
+        }
+        this.boundaryIndex = boundaryIndex;
+    }
+
+    /**
+     * Length of the boundary.
+     *
+     * @return
+     */
+    double getPerimeter() {
+        return cumulativeLength[segments.size()];
+    }
+
+    /**
+     * Returns the shorter of the two lengths of the boundary between two
+     * points on the boundary, in the way the walk over all segments in
+     * {@link Cut#computeDilation(PartitionPolygon)} measured them: the segment
+     * holding an endpoint is split at the endpoint, and its full length is
+     * counted once more for the side that follows the endpoint. Only the
+     * segments holding an endpoint are visited, the segments in between are
+     * taken from the cumulative lengths.
+     *
+     * @param v1
+     * @param v2
+     * @return
+     */
+    double boundaryDistance(Vector v1, Vector v2) {
+        double length1 = 0;
+        double length2 = 0;
+        boolean addingTo1 = true;
+        //first segment that is not added yet
+        int next = 0;
+        for (int i : boundaryIndex.segmentsNear(Arrays.asList(v1, v2))) {
+            PartitionSegment ps = segments.get(i);
+            Vector onSegment = null;// holds the endpoint that is on this segment if any
+            if (ps.onBoundary(v1)) {
+                onSegment = v1;
+            }
+            if (ps.onBoundary(v2)) {
+                onSegment = v2;
+            }
+            //an endpoint at the end of the segment switches sides at the next segment
+            if (onSegment == null || ps.getEnd().isApproximately(onSegment)) {
+                continue;
+            }
+            double between = cumulativeLength[i] - cumulativeLength[next];
+            double dis = ps.getStart().distanceTo(onSegment);
+            double remainingDis = ps.getEnd().distanceTo(onSegment);
+            if (addingTo1) {
+                length1 += between;
+                length1 += dis;
+                length2 += remainingDis;
+            } else {
+                length2 += between;
+                length2 += dis;
+                length1 += remainingDis;
+            }
+            //start adding to the other length.
+            addingTo1 = !addingTo1;
+            if (addingTo1) {
+                length1 += ps.length();
+            } else {
+                length2 += ps.length();
+            }
+            next = i + 1;
+        }
+        double remaining = getPerimeter() - cumulativeLength[next];
+        if (addingTo1) {
+            length1 += remaining;
+        } else {
+            length2 += remaining;
+        }
+        return Math.min(length1, length2);
+    }
+}
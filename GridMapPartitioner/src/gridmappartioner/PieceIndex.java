@@ -0,0 +1,144 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gridmappartioner;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import nl.tue.geometrycore.geometry.Vector;
+import nl.tue.geometrycore.geometry.linear.Rectangle;
+
+/**
+ * The pieces of a polygon that is being split, in a hierarchy of uniform
+ * grids. Level l has cells of 1/2^l times the size of the polygon, and a
+ * piece is stored once, in the cell of the center of its bounding box on the
+ * finest level whose cells are at least as large as the box. The box then
+ * lies within the neighbouring cells. Finds the piece containing a cut by
+ * testing only the pieces whose bounding box contains its midpoint.
+ *
+ * @author msondag
+ */
+class PieceIndex {
+
+    private final double left;
+    private final double bottom;
+    private final double size;
+    private final List<HashMap<Long, List<PartitionPolygon>>> levels = new ArrayList();
+    /**
+     * Cell each piece is stored in. Boxes are recomputed when a segment of a
+     * piece is split, so the cell is not recomputed on removal.
+     */
+    private final HashMap<PartitionPolygon, List<PartitionPolygon>> cellOf = new HashMap();
+
+    /**
+     * Indexes {@code polygon}, which will be split by about {@code cutCount}
+     * cuts. The finest level has about the square root of that number of
+     * cells per side.
+     *
+     * @param polygon
+     * @param cutCount
+     */
+    PieceIndex(PartitionPolygon polygon, int cutCount) {
+        Rectangle box = polygon.getBoundingBox();
+        left = box.getLeft();
+        bottom = box.getBottom();
+        size = Math.max(Math.max(box.width(), box.height()), 1000 * Precision.ACCURACY);
+        double cellSize = size;
+        do {
+            levels.add(new HashMap());
+            cellSize /= 2;
+        } while (cellSize * cellSize * cutCount > size * size && cellSize > 1000 * Precision.ACCURACY);
+        add(polygon);
+    }
+
+    /**
+     * Replaces {@code p} by the two parts it was split into.
+     *
+     * @param p
+     * @param p1
+     * @param p2
+     */
+    void split(PartitionPolygon p, PartitionPolygon p1, PartitionPolygon p2) {
+        cellOf.remove(p).remove(p);
+        add(p1);
+        add(p2);
+    }
+
+    private void add(PartitionPolygon p) {
+        int level = level(p);
+        Vector center = p.getBoundingBox().center();
+        List<PartitionPolygon> cellPieces = levels.get(level).computeIfAbsent(EndpointHash.cellKey(cell(center.getX() - left, level), cell(center.getY() - bottom, level)), k -> new ArrayList());
+        cellPieces.add(p);
+        cellOf.put(p, cellPieces);
+    }
+
+    /**
+     * Finest level whose cells are at least as large as the bounding box of
+     * {@code p}. Bounding boxes are tested with the precision, so they are
+     * extended by it.
+     *
+     * @param p
+     * @return
+     */
+    private int level(PartitionPolygon p) {
+        Rectangle box = p.getBoundingBox();
+        double extent = Math.max(box.width(), box.height()) + 2 * Precision.ACCURACY;
+        int level = 0;
+        double cellSize = size / 2;
+        while (level + 1 < levels.size() && cellSize >= extent) {
+            level++;
+            cellSize /= 2;
+        }
+        return level;
+    }
+
+    /**
+     * Returns the piece that contains {@code c} and comes first in
+     * {@code order}, or null if no piece contains it.
+     *
+     * @param c
+     * @param order order of the pieces
+     * @return
+     */
+    PartitionPolygon getOwner(Cut c, Comparator<PartitionPolygon> order) {
+        Vector point = c.segment.getPointAlongPerimeter(0.5);
+        if (Double.isInfinite(point.getX()) || Double.isInfinite(point.getY())) {
+            return null;
+        }
+        List<PartitionPolygon> candidates = new ArrayList();
+        for (int level = 0; level < levels.size(); level++) {
+            long column = cell(point.getX() - left, level);
+            long row = cell(point.getY() - bottom, level);
+            for (long dx = -1; dx <= 1; dx++) {
+                for (long dy = -1; dy <= 1; dy++) {
+                    List<PartitionPolygon> cellPieces = levels.get(level).get(EndpointHash.cellKey(column + dx, row + dy));
+                    if (cellPieces == null) {
+                        continue;
+                    }
+                    for (PartitionPolygon p : cellPieces) {
+                        if (p.getBoundingBox().contains(point, Precision.ACCURACY)) {
+                            candidates.add(p);
+                        }
+                    }
+                }
+            }
+        }
+        if (candidates.size() > 1) {
+            candidates.sort(order);
+        }
+        for (PartitionPolygon p : candidates) {
+            if (p.containsCut(c)) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    private long cell(double coordinate, int level) {
+        return (long) Math.floor(coordinate / size * (1L << level));
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gridmappartioner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import nl.tue.geometrycore.geometry.Vector;
+
+/**
+ * Finds which of a set of polygons contains a point. The edges of the polygons
+ * are bucketed into horizontal bands of about the average height of an edge. A
+ * point is located by casting a ray to the right and only testing the edges
+ * in the band of the point.
+ *
+ * @author msondag
+ */
+class PointLocation {
+
+    //edges as coordinates, with the polygon they belong to
+    private final List<double[]> edges = new ArrayList();
+    private final List<Integer> edgePolygon = new ArrayList();
+
+    private double minY = Double.MAX_VALUE;
+    private double maxY = -Double.MAX_VALUE;
+    private double bandHeight;
+    /**
+     * Indices of the edges overlapping each band.
+     */
+    private final List<List<Integer>> bands = new ArrayList();
+
+    /**
+     * Builds the structure for polygons given by their vertices in order.
+     * Polygons with less than 3 vertices never contain a point.
+     *
+     * @param polygons
+     */
+    PointLocation(List<List<Vector>> polygons) {
+        double totalHeight = 0;
+        for (int i = 0; i < polygons.size(); i++) {
+            List<Vector> vertices = polygons.get(i);
+            if (vertices.size() < 3) {
+                continue;
+            }
+            for (int j = 0; j < vertices.size(); j++) {
+                Vector v1 = vertices.get(j);
+                Vector v2 = vertices.get((j + 1) % vertices.size());
+                edges.add(new double[]{v1.getX(), v1.getY(), v2.getX(), v2.getY()});
+                edgePolygon.add(i);
+                minY = Math.min(minY, v1.getY());
+                maxY = Math.max(maxY, v1.getY());
+                totalHeight += Math.abs(v2.getY() - v1.getY());
+            }
+        }
+        if (edges.isEmpty()) {
+            return;
+        }
+
+        int bandCount = (int) Math.min(4 * edges.size(), Math.max(1, (maxY - minY) / (totalHeight / edges.size())));
+        bandHeight = Math.max((maxY - minY) / bandCount, Precision.ACCURACY);
+        for (int b = 0; b <= bandCount; b++) {
+            bands.add(new ArrayList());
+        }
+        for (int e = 0; e < edges.size(); e++) {
+            double[] edge = edges.get(e);
+            int firstBand = band(Math.min(edge[1], edge[3]));
+            int lastBand = band(Math.max(edge[1], edge[3]));
+            for (int b = firstBand; b <= lastBand; b++) {
+                bands.get(b).add(e);
+            }
+        }
+    }
+
+    private int band(double y) {
+        return Math.min(bands.size() - 1, (int) ((y - minY) / bandHeight));
+    }
+
+    /**
+     * Returns the index of the first polygon that contains {@code point}, or
+     * -1 if there is none.
+     *
+     * @param point
+     * @return
+     */
+    int locate(Vector point) {
+        double x = point.getX();
+        double y = point.getY();
+        if (edges.isEmpty() || !(y >= minY && y <= maxY) || Double.isInfinite(x) || Double.isNaN(x)) {
+            return -1;
+        }
+        //a point is inside a polygon if a ray to the right crosses its boundary an odd amount of times
+        List<Integer> crossed = new ArrayList();
+        for (int e : bands.get(band(y))) {
+            double[] edge = edges.get(e);
+            if ((edge[1] > y) != (edge[3] > y)) {
+                double crossingX = edge[0] + (y - edge[1]) / (edge[3] - edge[1]) * (edge[2] - edge[0]);
+                if (crossingX > x) {
+                    crossed.add(edgePolygon.get(e));
+                }
+            }
+        }
+        Collections.sort(crossed);
+        int i = 0;
+        while (i < crossed.size()) {
+            int j = i;
+            while (j < crossed.size() && crossed.get(j).equals(crossed.get(i))) {
+                j++;
+            }
+            if ((j - i) % 2 == 1) {
+                return crossed.get(i);
+            }
+            i = j;
+        }
+        return -1;
+    }
+}
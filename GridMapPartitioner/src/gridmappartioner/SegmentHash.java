@@ -0,0 +1,99 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gridmappartioner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import nl.tue.geometrycore.geometry.Vector;
+import nl.tue.geometrycore.geometry.linear.LineSegment;
+
+/**
+ * Items indexed by a segment, stored in every cell of a uniform grid the
+ * segment crosses. All segments a point lies on are returned by
+ * {@link #near(Vector)}.
+ *
+ * @author msondag
+ */
+class SegmentHash<T> {
+
+    private final double cellSize;
+    private final HashMap<Long, List<T>> itemsByCell = new HashMap();
+
+    /**
+     * Cells should be about the length of the average segment. They are made
+     * far larger than the precision, such that a point on a segment is at
+     * most one cell away.
+     *
+     * @param cellSize
+     */
+    SegmentHash(double cellSize) {
+        this.cellSize = Math.max(cellSize, 1000 * Precision.ACCURACY);
+    }
+
+    /**
+     * Adds {@code item} to all cells {@code ls} crosses.
+     *
+     * @param ls
+     * @param item
+     */
+    void add(LineSegment ls, T item) {
+        Vector start = ls.getStart();
+        Vector end = ls.getEnd();
+        if (start.getX() > end.getX()) {
+            Vector temp = start;
+            start = end;
+            end = temp;
+        }
+        if (end.getX() - start.getX() < Precision.ACCURACY) {
+            //vertical, a single column
+            addCells(cell(start.getX()), start.getY(), end.getY(), item);
+            return;
+        }
+        double slope = (end.getY() - start.getY()) / (end.getX() - start.getX());
+
+        //go through the columns, and add the rows the segment crosses in that column.
+        long lastColumn = cell(end.getX());
+        for (long column = cell(start.getX()); column <= lastColumn; column++) {
+            double x1 = Math.max(start.getX(), column * cellSize);
+            double x2 = Math.min(end.getX(), (column + 1) * cellSize);
+            addCells(column, start.getY() + (x1 - start.getX()) * slope, start.getY() + (x2 - start.getX()) * slope, item);
+        }
+    }
+
+    private void addCells(long column, double y1, double y2, T item) {
+        long lastRow = cell(Math.max(y1, y2));
+        for (long row = cell(Math.min(y1, y2)); row <= lastRow; row++) {
+            itemsByCell.computeIfAbsent(EndpointHash.cellKey(column, row), k -> new ArrayList()).add(item);
+        }
+    }
+
+    /**
+     * Returns the items of the segments crossing the cell of {@code v} or a
+     * neighbouring cell. Items can occur more than once.
+     *
+     * @param v
+     * @return
+     */
+    List<T> near(Vector v) {
+        List<T> items = new ArrayList();
+        long cellX = cell(v.getX());
+        long cellY = cell(v.getY());
+        for (long dx = -1; dx <= 1; dx++) {
+            for (long dy = -1; dy <= 1; dy++) {
+                List<T> cellItems = itemsByCell.get(EndpointHash.cellKey(cellX + dx, cellY + dy));
+                if (cellItems != null) {
+                    items.addAll(cellItems);
+                }
+            }
+        }
+        return items;
+    }
+
+    private long cell(double coordinate) {
+        return (long) Math.floor(coordinate / cellSize);
+    }
+}
@@ -11,6 +11,9 @@ import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,8 +26,10 @@ public class Utility {
     private static final boolean DEBUG = true;
     private static Random randomizer = new Random(42);
 
-    private static HashMap<String, Long> timingStart = new HashMap();
-    private static HashMap<String, Long> timing = new HashMap();
+    //start times are per thread, such that polygons can be partitioned in parallel
+    private static ThreadLocal<HashMap<String, Long>> timingStart = ThreadLocal.withInitial(HashMap::new);
+    //summed over all threads
+    private static ConcurrentHashMap<String, LongAdder> timing = new ConcurrentHashMap();
 
     public static int getRandomInt(int upperbound) {
         return randomizer.nextInt(upperbound);
@@ -65,25 +70,24 @@ public class Utility {
     }
 
     public static void startTimer(String timeName) {
-        timingStart.put(timeName, System.currentTimeMillis());
+        timingStart.get().put(timeName, System.currentTimeMillis());
     }
 
     public static void endTimer(String timeName) {
         //sum the previous value with the current value.
-        long time = System.currentTimeMillis() - timingStart.get(timeName);
-        timing.put(timeName, timing.getOrDefault(timeName, 0l) + time);
+        long time = System.currentTimeMillis() - timingStart.get().get(timeName);
+        timing.computeIfAbsent(timeName, key -> new LongAdder()).add(time);
     }
 
     public static void printTimer() {
         for (String key : timing.keySet()) {
-            System.out.println(key + ": " + timing.get(key));
+            System.out.println(key + ": " + timing.get(key).sum());
         }
     }
 
-    public static int counter = 0;
+    private static AtomicInteger counter = new AtomicInteger();
 
     public static int getNextCount() {
-        counter++;
-        return counter;
+        return counter.incrementAndGet();
     }
 }
@@ -11,13 +11,12 @@ import gridmappartioner.Utility;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.logging.Level;
 import nl.tue.geometrycore.geometry.Vector;
 import nl.tue.geometrycore.geometry.linear.LineSegment;
 
@@ -28,9 +27,21 @@ import nl.tue.geometrycore.geometry.linear.LineSegment;
  */
 public class MedialAxis {
 
+    /**
+     * If true, the medial axis is computed with the external CGAL executable
+     * instead of {@link SegmentVoronoi}.
+     */
+    public static boolean useCgal = false;
+    /**
+     * If not null, the medial axis is computed by these long-lived worker
+     * processes.
+     */
+    public static MedialAxisWorkerPool workerPool = null;
+
     Set<Vector> vertices = new HashSet();
     List<MedialSegment> medialSegments = new ArrayList();
     PartitionPolygon polygon;
+    private boolean oppositesAssigned = false;
 
     public MedialAxis(PartitionPolygon polygon) {
         this.polygon = polygon;
@@ -44,7 +55,17 @@ public class MedialAxis {
     }
 
     private void getMedialAxis() {
-        List<String> lines = executeCgal();
+        List<String> lines;
+        if (workerPool != null) {
+            lines = workerPool.compute(polygonToCin());
+        } else if (useCgal) {
+            lines = executeCgal();
+        } else {
+            for (MedialSegment ms : new SegmentVoronoi(polygon.getVertices()).computeMedialAxis()) {
+                addSegment(ms);
+            }
+            return;
+        }
         //cgal returns interior and exterior medial axis. We only need the interior.
         //and discard the rest
 
@@ -78,21 +99,32 @@ public class MedialAxis {
                 //segment invalid or exterior. Sip it
                 continue;
             }
-            if (ms.getStart().isEqual(ms.getEnd())) {
-                //don't do point segments
-                System.out.println("Point segment");
-                continue;
-            }
+            addSegment(ms);
+        }
+    }
 
-            medialSegments.add(ms);
-            vertices.add(ms.getStart());
-            vertices.add(ms.getEnd());
+    private void addSegment(MedialSegment ms) {
+        if (ms.getStart().isEqual(ms.getEnd())) {
+            //don't do point segments
+            System.out.println("Point segment");
+            return;
         }
+
+        medialSegments.add(ms);
+        vertices.add(ms.getStart());
+        vertices.add(ms.getEnd());
     }
 
     private List<String> executeCgal() {
-        //convert to the right format for cgal
-        String polygonLocation = polygonToCin();
+        //convert to the right format for cgal. Each call uses its own file, such that runs do not collide
+        String polygonLocation;
+        try {
+            Path tempFile = Files.createTempFile("polygon", ".cls");
+            Files.write(tempFile, polygonToCin());
+            polygonLocation = tempFile.toString();
+        } catch (IOException ex) {
+            throw new IllegalStateException("Could not write the polygon for cgal", ex);
+        }
 
         //execute process and get data
         String fileLocation = "external/sdg-voronoi-edges.exe";
@@ -112,7 +144,7 @@ public class MedialAxis {
         return returnString;
     }
 
-    private String polygonToCin() {
+    private List<String> polygonToCin() {
         List<String> outputLines = new ArrayList();
         List<Vector> pVertices = polygon.getVertices();
         for (int i = 0; i < (pVertices.size() - 1); i++) {
@@ -121,16 +153,7 @@ public class MedialAxis {
             outputLines.add(edgeToCin(v1, v2));
         }
         outputLines.add(edgeToCin(pVertices.get(pVertices.size() - 1), pVertices.get(0)));
-
-        String tempFilePath = "temp.cls";
-        try {
-            Files.write(Paths.get(tempFilePath), outputLines);
-
-        } catch (IOException ex) {
-            java.util.logging.Logger.getLogger(MedialAxis.class
-                    .getName()).log(Level.SEVERE, null, ex);
-        }
-        return tempFilePath;
+        return outputLines;
     }
 
     private String edgeToCin(Vector v1, Vector v2) {
@@ -174,10 +197,19 @@ public class MedialAxis {
         return new ParabolaMedialSegment(p1, p2, p3, split[7], split[8], split[9]);
     }
 
+    /**
+     * Assigns the defining geometries of the medial segments. They only depend
+     * on the segment and the polygon, so they are assigned once. Later calls
+     * do nothing.
+     */
     public void assignOpposites() {
+        if (oppositesAssigned) {
+            return;
+        }
         for (MedialSegment ms : medialSegments) {
             ms.addDefiningGeometries(polygon);
         }
+        oppositesAssigned = true;
     }
 
     public void toIpe(String fileLocation) {
@@ -0,0 +1,101 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gridmappartioner.mAxis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import nl.tue.geometrycore.geometry.Vector;
+
+/**
+ * Java stand-in for an external medial axis worker. Reads polygons from stdin
+ * and writes their medial axis to stdout until stdin is closed, using the
+ * protocol of {@link MedialAxisWorkerPool}. The medial axis is computed with
+ * {@link SegmentVoronoi}.
+ *
+ * Can be started as a worker with
+ * {@code java -cp <classpath> gridmappartioner.mAxis.MedialAxisWorker}.
+ *
+ * @author msondag
+ */
+public class MedialAxisWorker {
+
+    public static void main(String[] args) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(System.out));
+        String request;
+        while ((request = readMessage(in)) != null) {
+            writeMessage(out, computeMedialAxis(request));
+        }
+    }
+
+    /**
+     * Computes the medial axis of a polygon given as "s x1 y1 x2 y2" lines,
+     * and returns it in the output format of sdg-voronoi-edges.
+     *
+     * @param request
+     * @return
+     */
+    static String computeMedialAxis(String request) {
+        List<Vector> vertices = new ArrayList();
+        for (String line : request.split("\n")) {
+            if (!line.startsWith("s ")) {
+                continue;
+            }
+            String[] split = line.split(" ");
+            vertices.add(new Vector(Double.parseDouble(split[1]), Double.parseDouble(split[2])));
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (MedialSegment ms : new SegmentVoronoi(vertices).computeMedialAxis()) {
+            if (ms instanceof ParabolaMedialSegment) {
+                ParabolaMedialSegment ps = (ParabolaMedialSegment) ms;
+                sb.append("p ").append(coordinates(ms.getStart())).append(" ").append(coordinates(ms.getEnd()));
+                sb.append(" ").append(coordinates(ps.focusPoint));
+                sb.append(" ").append(ps.a).append(" ").append(ps.b).append(" ").append(ps.c).append("\n");
+            } else {
+                sb.append("s ").append(coordinates(ms.getStart())).append(" ").append(coordinates(ms.getEnd())).append("\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String coordinates(Vector v) {
+        return v.getX() + " " + v.getY();
+    }
+
+    /**
+     * Reads a message, or returns null if the stream ended before it.
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    static String readMessage(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException ex) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeMessage(DataOutputStream out, String message) throws IOException {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.flush();
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gridmappartioner.mAxis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool of long-lived medial axis processes, such that a process is not
+ * started for every polygon and no temporary files are needed.
+ *
+ * Protocol: every message is a 4 byte big-endian length followed by that many
+ * bytes of UTF-8 text. A request holds the edges of the polygon as
+ * "s x1 y1 x2 y2" lines, the input format of sdg-voronoi-edges. The response
+ * holds the medial axis in the output format of sdg-voronoi-edges. A worker
+ * answers requests in order and exits when its stdin is closed.
+ * {@link MedialAxisWorker} implements the protocol in Java.
+ *
+ * @author msondag
+ */
+public class MedialAxisWorkerPool implements Closeable {
+
+    private final List<String> command;
+    private final BlockingQueue<Worker> idle;
+    private final List<Worker> workers = new ArrayList();
+
+    /**
+     * Starts {@code size} workers with {@code command}.
+     *
+     * @param command
+     * @param size
+     * @throws IOException
+     */
+    public MedialAxisWorkerPool(List<String> command, int size) throws IOException {
+        this.command = command;
+        idle = new ArrayBlockingQueue(size);
+        for (int i = 0; i < size; i++) {
+            idle.add(startWorker());
+        }
+    }
+
+    /**
+     * Pool of workers started with a command line separated by spaces.
+     *
+     * @param commandLine
+     * @param size
+     * @return
+     * @throws IOException
+     */
+    public static MedialAxisWorkerPool fromCommandLine(String commandLine, int size) throws IOException {
+        return new MedialAxisWorkerPool(Arrays.asList(commandLine.trim().split("\\s+")), size);
+    }
+
+    /**
+     * Sends the edges of a polygon to an idle worker and returns the lines of
+     * its medial axis. Blocks until a worker is available. A worker that
+     * fails is replaced and the request is tried once more. Throws if the
+     * replacement cannot be started, or if no worker is left to wait for.
+     *
+     * @param edgeLines
+     * @return
+     */
+    public List<String> compute(List<String> edgeLines) {
+        String request = String.join("\n", edgeLines) + "\n";
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Worker worker = takeWorker();
+            try {
+                String response = worker.exchange(request);
+                idle.add(worker);
+                return Arrays.asList(response.split("\n"));
+            } catch (IOException ex) {
+                Logger.getLogger(MedialAxisWorkerPool.class.getName()).log(Level.SEVERE, null, ex);
+                discard(worker);
+                try {
+                    idle.add(startWorker());
+                } catch (IOException ex2) {
+                    throw new IllegalStateException("Could not restart the medial axis worker " + command, ex2);
+                }
+            }
+        }
+        throw new IllegalStateException(command + " did not compute the medial axis properly");
+    }
+
+    /**
+     * Waits for an idle worker. Workers that are busy are returned to the
+     * pool eventually, but if a worker was lost none might be left, so the
+     * pool is checked for live workers while waiting.
+     */
+    private Worker takeWorker() {
+        try {
+            while (true) {
+                Worker worker = idle.poll(1, TimeUnit.SECONDS);
+                if (worker != null) {
+                    return worker;
+                }
+                if (!hasWorkers()) {
+                    throw new IllegalStateException("No medial axis worker " + command + " is left");
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a medial axis worker", ex);
+        }
+    }
+
+    private synchronized boolean hasWorkers() {
+        return !workers.isEmpty();
+    }
+
+    private synchronized Worker startWorker() throws IOException {
+        Worker worker = new Worker(command);
+        workers.add(worker);
+        return worker;
+    }
+
+    private synchronized void discard(Worker worker) {
+        worker.destroy();
+        workers.remove(worker);
+    }
+
+    /**
+     * Closes the stdin of all workers, such that they exit.
+     */
+    @Override
+    public synchronized void close() {
+        for (Worker worker : workers) {
+            worker.close();
+        }
+        workers.clear();
+        idle.clear();
+    }
+
+    private static class Worker {
+
+        private final Process process;
+        private final DataOutputStream toWorker;
+        private final DataInputStream fromWorker;
+
+        Worker(List<String> command) throws IOException {
+            ProcessBuilder pb = new ProcessBuilder(command);
+            pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+            process = pb.start();
+            toWorker = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            fromWorker = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+        }
+
+        String exchange(String request) throws IOException {
+            MedialAxisWorker.writeMessage(toWorker, request);
+            String response = MedialAxisWorker.readMessage(fromWorker);
+            if (response == null) {
+                throw new IOException("Medial axis worker stopped");
+            }
+            return response;
+        }
+
+        void close() {
+            try {
+                toWorker.close();
+            } catch (IOException ex) {
+                destroy();
+            }
+        }
+
+        void destroy() {
+            process.destroy();
+        }
+    }
+}
@@ -5,6 +5,7 @@
  */
 package gridmappartioner.mAxis;
 
+import gridmappartioner.BoundaryIndex;
 import gridmappartioner.PartitionPolygon;
 import gridmappartioner.PartitionSegment;
 import static gridmappartioner.Precision.eq;
@@ -149,8 +150,10 @@ public class MedialSegment extends LineSegment {
         }
 
         //lines formed by 2 line segments.
-        for (PartitionSegment ps : polygon.getSegments()) {
-            //go through the polygon, and find a segment where a point from both start and end are projected on.
+        BoundaryIndex index = polygon.getBoundaryIndex();
+        for (int i : index.segmentsNear(startProjectionPoints)) {
+            PartitionSegment ps = index.getSegment(i);
+            //go through the segments near the start projections, and find a segment where a point from both start and end are projected on.
             //There are exactly two such segments.
             for (Vector startVector : startProjectionPoints) {
                 if (!ps.onBoundary(startVector)) {
@@ -177,7 +180,10 @@ public class MedialSegment extends LineSegment {
 
     public void setBoundary(PartitionPolygon polygon) {
         //set whether this segment lies on the polygon
-        for (PartitionSegment ps : polygon.getSegments()) {
+        BoundaryIndex index = polygon.getBoundaryIndex();
+        List<Vector> endpoints = Arrays.asList(getStart(), getEnd());
+        for (int i : index.segmentsNear(endpoints)) {
+            PartitionSegment ps = index.getSegment(i);
             if (ps.onBoundary(getStart()) || ps.onBoundary(getEnd())) {
                 onPolygon = true;
                 //set the furthest points for alpha convecity.
@@ -237,7 +243,10 @@ public class MedialSegment extends LineSegment {
         double minDistance = Double.MAX_VALUE;
         List<Vector> closestPoints = new ArrayList();
 
-        for (LineSegment ls : polygon.getSegments()) {
+        //only the closest segments can be within the precision of the minimum.
+        BoundaryIndex index = polygon.getBoundaryIndex();
+        for (int i : index.closestSegments(base)) {
+            LineSegment ls = index.getSegment(i);
             Vector closestPoint = ls.closestPoint(base);
 
             double distance = base.distanceTo(closestPoint);
@@ -5,6 +5,7 @@
  */
 package gridmappartioner.mAxis;
 
+import gridmappartioner.BoundaryIndex;
 import gridmappartioner.PartitionPolygon;
 import gridmappartioner.PartitionSegment;
 import gridmappartioner.Utility;
@@ -29,11 +30,15 @@ public class ParabolaMedialSegment extends MedialSegment {
     double a, b, c;
 
     ParabolaMedialSegment(Vector p1, Vector p2, Vector p3, String a, String b, String c) {
+        this(p1, p2, p3, Double.parseDouble(a), Double.parseDouble(b), Double.parseDouble(c));
+    }
+
+    ParabolaMedialSegment(Vector p1, Vector p2, Vector p3, double a, double b, double c) {
         super(p1, p2);
         this.focusPoint = p3;
-        this.a = Double.parseDouble(a);
-        this.b = Double.parseDouble(b);
-        this.c = Double.parseDouble(c);
+        this.a = a;
+        this.b = b;
+        this.c = c;
         parabolaLine = getLineFromCgalLine(this.a, this.b, this.c);
     }
 
@@ -69,14 +74,15 @@ public class ParabolaMedialSegment extends MedialSegment {
     public void addDefiningGeometries(PartitionPolygon polygon) {
         definingPoint1 = focusPoint;
 
-        //faster way possible
         List<Vector> startProjectionPoints = getProjectionPoints(polygon, getStart());
         List<Vector> endProjectionPoints = getProjectionPoints(polygon, getEnd());
 
 
 
         //lines formed by 1 more line segment, both need a point on it
-        for (PartitionSegment ps : polygon.getSegments()) {
+        BoundaryIndex index = polygon.getBoundaryIndex();
+        for (int i : index.segmentsNear(startProjectionPoints)) {
+            PartitionSegment ps = index.getSegment(i);
             Vector startVector = null;
             for (Vector v : startProjectionPoints) {
                 if (!v.isEqual(focusPoint) && ps.onBoundary(v)) {
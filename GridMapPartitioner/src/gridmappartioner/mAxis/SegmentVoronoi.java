@@ -0,0 +1,652 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gridmappartioner.mAxis;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import nl.tue.geometrycore.geometry.Vector;
+
+/**
+ * Computes the interior medial axis of a simple polygon without external
+ * tools. The medial axis is the Voronoi diagram of the open edges and the
+ * reflex vertices of the polygon, restricted to its interior. Convex vertices
+ * do not need to be sites, as the edges next to them already cover their
+ * neighbourhood.
+ *
+ * The interior diagram is a tree. It is traced edge by edge, starting at a
+ * convex vertex. Each Voronoi edge follows the bisector of its two sites until
+ * a third site becomes equally close, which is a Voronoi vertex where new
+ * edges start. Every bisector is a line or a parabola, and for both the
+ * moment a third site becomes equally close is the root of a quadratic
+ * equation. Tracing takes O(n) per edge, and O(n^2) in total.
+ *
+ * Edges between a reflex vertex and an edge are returned as
+ * {@link ParabolaMedialSegment}s, all other edges as {@link MedialSegment}s,
+ * matching the output of CGAL.
+ *
+ * @author msondag
+ */
+class SegmentVoronoi {
+
+    /**
+     * A vertex or an open edge of the polygon.
+     */
+    private static class Site {
+
+        final boolean point;
+        //point, or the start of the edge
+        final double x, y;
+        //end of the edge
+        final double x2, y2;
+        //unit direction and the inward normal of the edge
+        final double tx, ty, nx, ny;
+        //length of the edge and offset of its line: n.p = c for points p on the line
+        final double length, c;
+        //the edges of a point, or the points at the ends of an edge
+        final List<Site> neighbours = new ArrayList();
+
+        Site(double x, double y) {
+            this.point = true;
+            this.x = x;
+            this.y = y;
+            this.x2 = x;
+            this.y2 = y;
+            tx = ty = nx = ny = length = c = 0;
+        }
+
+        Site(double x, double y, double x2, double y2, boolean counterClockwise) {
+            this.point = false;
+            this.x = x;
+            this.y = y;
+            this.x2 = x2;
+            this.y2 = y2;
+            length = Math.hypot(x2 - x, y2 - y);
+            tx = (x2 - x) / length;
+            ty = (y2 - y) / length;
+            //interior is to the left of counterclockwise edges
+            nx = counterClockwise ? -ty : ty;
+            ny = counterClockwise ? tx : -tx;
+            c = nx * x + ny * y;
+        }
+
+        /**
+         * Closest point of this site to (px,py).
+         */
+        double[] foot(double px, double py) {
+            if (point) {
+                return new double[]{x, y};
+            }
+            double u = (px - x) * tx + (py - y) * ty;
+            if (u <= 0) {
+                return new double[]{x, y};
+            } else if (u >= length) {
+                return new double[]{x2, y2};
+            }
+            return new double[]{x + u * tx, y + u * ty};
+        }
+    }
+
+    /**
+     * Bisector of two sites, parametrized as a curve p(t) with clearance r(t).
+     */
+    private static class Bisector {
+
+        //line with linear clearance: two edges, or an edge and its own endpoint
+        static final int LINEAR = 0;
+        //perpendicular bisector of two points
+        static final int POINTS = 1;
+        //parabola of a point and an edge
+        static final int PARABOLA = 2;
+
+        int kind;
+        //LINEAR and POINTS: p(t) = o + t*d. PARABOLA: o is the foot of the focus on the edge, d the edge direction
+        double ox, oy, dx, dy;
+        //LINEAR: r(t) = r0 + r1*t
+        double r0, r1;
+        //POINTS: one of the points. PARABOLA: the normal of the edge and the distance of the focus to it
+        double px, py, nx, ny, pw;
+        Site pointSite, edgeSite;
+        Site siteA, siteB;
+
+        /**
+         * Bisector of {@code a} and {@code b} through (wx,wy), or null if they
+         * do not have one.
+         */
+        static Bisector create(Site a, Site b, double wx, double wy) {
+            Bisector bs = new Bisector();
+            bs.siteA = a;
+            bs.siteB = b;
+            if (!a.point && !b.point) {
+                double fx = a.nx - b.nx;
+                double fy = a.ny - b.ny;
+                double len = Math.hypot(fx, fy);
+                if (len < 1e-12) {
+                    //parallel edges facing the same way
+                    return null;
+                }
+                bs.kind = LINEAR;
+                bs.ox = wx;
+                bs.oy = wy;
+                bs.dx = -fy / len;
+                bs.dy = fx / len;
+                bs.r0 = (a.nx * wx + a.ny * wy - a.c + b.nx * wx + b.ny * wy - b.c) / 2;
+                bs.r1 = a.nx * bs.dx + a.ny * bs.dy;
+            } else if (a.point && b.point) {
+                double len = Math.hypot(b.x - a.x, b.y - a.y);
+                if (len < 1e-12) {
+                    return null;
+                }
+                bs.kind = POINTS;
+                bs.ox = wx;
+                bs.oy = wy;
+                bs.dx = -(b.y - a.y) / len;
+                bs.dy = (b.x - a.x) / len;
+                bs.px = a.x;
+                bs.py = a.y;
+            } else {
+                Site p = a.point ? a : b;
+                Site e = a.point ? b : a;
+                double distance = e.nx * p.x + e.ny * p.y - e.c;
+                if (distance < 1e-9 * Math.max(1, e.length)) {
+                    //the point is on the line of the edge: the bisector is the perpendicular through the point
+                    bs.kind = LINEAR;
+                    bs.ox = p.x;
+                    bs.oy = p.y;
+                    bs.dx = e.nx;
+                    bs.dy = e.ny;
+                    bs.r0 = 0;
+                    bs.r1 = 1;
+                } else {
+                    bs.kind = PARABOLA;
+                    bs.pw = distance;
+                    bs.ox = p.x - distance * e.nx;
+                    bs.oy = p.y - distance * e.ny;
+                    bs.dx = e.tx;
+                    bs.dy = e.ty;
+                    bs.nx = e.nx;
+                    bs.ny = e.ny;
+                    bs.pointSite = p;
+                    bs.edgeSite = e;
+                }
+            }
+            return bs;
+        }
+
+        double parameterOf(double x, double y) {
+            return (x - ox) * dx + (y - oy) * dy;
+        }
+
+        double[] point(double t) {
+            if (kind == PARABOLA) {
+                double w = (t * t + pw * pw) / (2 * pw);
+                return new double[]{ox + t * dx + w * nx, oy + t * dy + w * ny};
+            }
+            return new double[]{ox + t * dx, oy + t * dy};
+        }
+
+        double[] derivative(double t) {
+            if (kind == PARABOLA) {
+                return new double[]{dx + t / pw * nx, dy + t / pw * ny};
+            }
+            return new double[]{dx, dy};
+        }
+
+        double radius(double t) {
+            switch (kind) {
+                case LINEAR:
+                    return r0 + r1 * t;
+                case POINTS:
+                    double[] p = point(t);
+                    return Math.hypot(p[0] - px, p[1] - py);
+                default:
+                    return (t * t + pw * pw) / (2 * pw);
+            }
+        }
+
+        /**
+         * Parameters where {@code s} is as close as the sites of this bisector.
+         * Can contain roots that are not valid, as some equations are squared.
+         */
+        double[] roots(Site s) {
+            //an edge and its endpoint are equally close on the whole perpendicular through the endpoint.
+            //the distance equation only touches there, so use the perpendicular itself
+            if (s.neighbours.contains(siteA) || s.neighbours.contains(siteB)) {
+                Site other = s.neighbours.contains(siteA) ? siteA : siteB;
+                return perpendicularRoots(s.point ? s : other, s.point ? other : s);
+            }
+            double a, b, c;
+            if (kind == LINEAR) {
+                if (s.point) {
+                    double ax = ox - s.x;
+                    double ay = oy - s.y;
+                    a = 1 - r1 * r1;
+                    b = 2 * (dx * ax + dy * ay - r0 * r1);
+                    c = ax * ax + ay * ay - r0 * r0;
+                } else {
+                    a = 0;
+                    b = s.nx * dx + s.ny * dy - r1;
+                    c = s.nx * ox + s.ny * oy - s.c - r0;
+                }
+            } else if (kind == POINTS) {
+                double apx = ox - px;
+                double apy = oy - py;
+                if (s.point) {
+                    double acx = ox - s.x;
+                    double acy = oy - s.y;
+                    a = 0;
+                    b = 2 * (dx * (px - s.x) + dy * (py - s.y));
+                    c = acx * acx + acy * acy - apx * apx - apy * apy;
+                } else {
+                    double a0 = s.nx * ox + s.ny * oy - s.c;
+                    double a1 = s.nx * dx + s.ny * dy;
+                    a = a1 * a1 - 1;
+                    b = 2 * (a0 * a1 - (dx * apx + dy * apy));
+                    c = a0 * a0 - apx * apx - apy * apy;
+                }
+            } else {
+                if (s.point) {
+                    double cu = (s.x - ox) * dx + (s.y - oy) * dy;
+                    double cw = (s.x - ox) * nx + (s.y - oy) * ny;
+                    a = pw - cw;
+                    b = -2 * pw * cu;
+                    c = pw * cu * cu + pw * cw * cw - cw * pw * pw;
+                } else {
+                    double k0 = s.nx * ox + s.ny * oy - s.c;
+                    double k1 = s.nx * dx + s.ny * dy;
+                    double k2 = s.nx * nx + s.ny * ny - 1;
+                    a = k2 / (2 * pw);
+                    b = k1;
+                    c = k0 + k2 * pw / 2;
+                }
+            }
+            return solveQuadratic(a, b, c);
+        }
+
+        /**
+         * Parameters where the bisector crosses the perpendicular of
+         * {@code edge} through its endpoint {@code point}.
+         */
+        private double[] perpendicularRoots(Site point, Site edge) {
+            double offset = (ox - point.x) * edge.tx + (oy - point.y) * edge.ty;
+            double along = dx * edge.tx + dy * edge.ty;
+            if (kind == PARABOLA) {
+                double normal = nx * edge.tx + ny * edge.ty;
+                return solveQuadratic(normal / (2 * pw), along, offset + normal * pw / 2);
+            }
+            return solveQuadratic(0, along, offset);
+        }
+    }
+
+    /**
+     * A Voronoi edge that still has to be traced.
+     */
+    private static class Trace {
+
+        final Bisector bisector;
+        final Site a, b;
+        final Vector start;
+        final double startT;
+        //+1 if the edge follows increasing t, -1 otherwise
+        final double direction;
+        //all sites that are equally close at the start
+        final List<Site> startSites;
+
+        Trace(Bisector bisector, Site a, Site b, Vector start, double startT, double direction, List<Site> startSites) {
+            this.bisector = bisector;
+            this.a = a;
+            this.b = b;
+            this.start = start;
+            this.startT = startT;
+            this.direction = direction;
+            this.startSites = startSites;
+        }
+    }
+
+    private final List<Site> sites = new ArrayList();
+    //first convex vertex and its edges, where the trace starts
+    private Site startEdge1, startEdge2;
+    private Vector startVertex;
+    /**
+     * Distances below this are considered to be 0.
+     */
+    private final double epsilon;
+
+    SegmentVoronoi(List<Vector> vertices) {
+        int n = vertices.size();
+        double area = 0;
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            Vector v1 = vertices.get(i);
+            Vector v2 = vertices.get((i + 1) % n);
+            area += v1.getX() * v2.getY() - v2.getX() * v1.getY();
+            minX = Math.min(minX, v1.getX());
+            minY = Math.min(minY, v1.getY());
+            maxX = Math.max(maxX, v1.getX());
+            maxY = Math.max(maxY, v1.getY());
+        }
+        boolean counterClockwise = area > 0;
+        epsilon = 1e-9 * Math.max(1, Math.hypot(maxX - minX, maxY - minY));
+
+        List<Site> edges = new ArrayList();
+        for (int i = 0; i < n; i++) {
+            Vector v1 = vertices.get(i);
+            Vector v2 = vertices.get((i + 1) % n);
+            if (v1.isEqual(v2)) {
+                continue;
+            }
+            edges.add(new Site(v1.getX(), v1.getY(), v2.getX(), v2.getY(), counterClockwise));
+        }
+        sites.addAll(edges);
+
+        //reflex vertices are sites as well. The first convex vertex starts the trace
+        for (int i = 0; i < edges.size(); i++) {
+            Site in = edges.get(i);
+            Site out = edges.get((i + 1) % edges.size());
+            double cross = in.tx * out.ty - in.ty * out.tx;
+            if (!counterClockwise) {
+                cross = -cross;
+            }
+            if (cross < -1e-12) {
+                Site reflex = new Site(out.x, out.y);
+                reflex.neighbours.add(in);
+                reflex.neighbours.add(out);
+                in.neighbours.add(reflex);
+                out.neighbours.add(reflex);
+                sites.add(reflex);
+            } else if (cross > 1e-12 && startVertex == null) {
+                startEdge1 = in;
+                startEdge2 = out;
+                startVertex = new Vector(out.x, out.y);
+            }
+        }
+    }
+
+    /**
+     * Computes the edges of the interior medial axis, including the edges
+     * ending in vertices of the polygon.
+     *
+     * @return
+     */
+    List<MedialSegment> computeMedialAxis() {
+        List<MedialSegment> segments = new ArrayList();
+        if (startVertex == null) {
+            System.err.println("Polygon does not have a convex vertex, cannot compute the medial axis");
+            return segments;
+        }
+
+        Deque<Trace> traces = new ArrayDeque();
+        Bisector first = Bisector.create(startEdge1, startEdge2, startVertex.getX(), startVertex.getY());
+        double[] firstDerivative = first.derivative(0);
+        double inward = (startEdge1.nx + startEdge2.nx) * firstDerivative[0] + (startEdge1.ny + startEdge2.ny) * firstDerivative[1];
+        traces.add(new Trace(first, startEdge1, startEdge2, startVertex, 0, Math.signum(inward), Arrays.asList(startEdge1, startEdge2)));
+
+        //the diagram has O(n) edges. Guards against looping on degenerate input
+        int maxEdges = 8 * sites.size() + 16;
+        while (!traces.isEmpty()) {
+            if (segments.size() > maxEdges) {
+                System.err.println("Medial axis has more edges than possible, the polygon is likely not simple");
+                break;
+            }
+            trace(traces.removeFirst(), traces, segments);
+        }
+        return segments;
+    }
+
+    /**
+     * Follows the edge until the next Voronoi vertex, adds it to
+     * {@code segments} and adds the edges that start at the vertex to
+     * {@code traces}.
+     */
+    private void trace(Trace trace, Deque<Trace> traces, List<MedialSegment> segments) {
+        Bisector bs = trace.bisector;
+
+        //closest event along the edge
+        double best = Double.POSITIVE_INFINITY;
+        double leafDistance = Double.POSITIVE_INFINITY;
+        if (bs.kind == Bisector.LINEAR && bs.r1 != 0) {
+            //clearance becomes 0 at a vertex of the polygon
+            double tau = trace.direction * (-bs.r0 / bs.r1 - trace.startT);
+            if (tau > epsilon) {
+                best = leafDistance = tau;
+            }
+        }
+        double[] distances = new double[sites.size()];
+        for (int i = 0; i < sites.size(); i++) {
+            Site s = sites.get(i);
+            distances[i] = Double.POSITIVE_INFINITY;
+            if (s == trace.a || s == trace.b) {
+                continue;
+            }
+            double[] roots = bs.roots(s);
+            //a site that is equally close at the start has a root there. Rounding can move it forward slightly
+            int startRoot = -1;
+            if (trace.startSites.contains(s)) {
+                for (int r = 0; r < roots.length; r++) {
+                    if (startRoot == -1 || Math.abs(roots[r] - trace.startT) < Math.abs(roots[startRoot] - trace.startT)) {
+                        startRoot = r;
+                    }
+                }
+            }
+            for (int r = 0; r < roots.length; r++) {
+                double t = roots[r];
+                double tau = trace.direction * (t - trace.startT);
+                if (r != startRoot && tau > epsilon && tau < distances[i] && isEvent(bs, s, t)) {
+                    distances[i] = tau;
+                }
+            }
+            best = Math.min(best, distances[i]);
+        }
+        if (best == Double.POSITIVE_INFINITY) {
+            System.err.println("Medial axis edge does not end, skipping it");
+            return;
+        }
+
+        double endT = trace.startT + trace.direction * best;
+        double[] p = bs.point(endT);
+
+        //sites that are equally close at the vertex
+        double tolerance = 100 * epsilon;
+        List<Site> ties = new ArrayList();
+        for (int i = 0; i < sites.size(); i++) {
+            if (distances[i] <= best + tolerance) {
+                ties.add(sites.get(i));
+            }
+        }
+        removeTangentTies(ties, p[0], p[1]);
+        List<Site> vertexSites = new ArrayList();
+        vertexSites.add(trace.a);
+        vertexSites.add(trace.b);
+        vertexSites.addAll(ties);
+        boolean leaf = leafDistance <= best + tolerance;
+
+        Vector end = new Vector(p[0], p[1]);
+        if (!trace.start.isEqual(end)) {
+            if (bs.kind == Bisector.PARABOLA) {
+                Site e = bs.edgeSite;
+                Vector focus = new Vector(bs.pointSite.x, bs.pointSite.y);
+                segments.add(new ParabolaMedialSegment(trace.start, end, focus, e.nx, e.ny, -e.c));
+            } else {
+                segments.add(new MedialSegment(trace.start, end));
+            }
+        }
+        if (leaf) {
+            //reached the boundary of the polygon
+            return;
+        }
+        addOutgoingEdges(trace, vertexSites, p[0], p[1], end, traces);
+    }
+
+    /**
+     * An edge and its endpoint are almost equally close to points near the
+     * perpendicular through the endpoint, so both can be within the tolerance
+     * while only one is part of the vertex (x,y). Keeps the edge if the vertex
+     * is next to it, the endpoint if it is beyond it, and both if the vertex
+     * is on the perpendicular.
+     */
+    private void removeTangentTies(List<Site> ties, double x, double y) {
+        List<Site> remove = new ArrayList();
+        for (Site e : ties) {
+            if (e.point) {
+                continue;
+            }
+            for (Site p : e.neighbours) {
+                if (!ties.contains(p)) {
+                    continue;
+                }
+                //offset from the perpendicular, positive towards the edge
+                double offset = (x - p.x) * e.tx + (y - p.y) * e.ty;
+                if (p.x != e.x || p.y != e.y) {
+                    offset = -offset;
+                }
+                if (offset > 100 * epsilon) {
+                    remove.add(p);
+                } else if (offset < -100 * epsilon) {
+                    remove.add(e);
+                }
+            }
+        }
+        ties.removeAll(remove);
+    }
+
+    /**
+     * Whether {@code s} is exactly as close to p(t) as the sites of the
+     * bisector, and within its own region.
+     */
+    private boolean isEvent(Bisector bs, Site s, double t) {
+        double r = bs.radius(t);
+        if (r < -epsilon) {
+            return false;
+        }
+        double[] p = bs.point(t);
+        double distance;
+        if (s.point) {
+            distance = Math.hypot(p[0] - s.x, p[1] - s.y);
+        } else {
+            double u = (p[0] - s.x) * s.tx + (p[1] - s.y) * s.ty;
+            if (u < -epsilon || u > s.length + epsilon) {
+                //the closest point is an endpoint, which is a site by itself if it matters
+                return false;
+            }
+            distance = s.nx * p[0] + s.ny * p[1] - s.c;
+        }
+        return Math.abs(distance - r) <= 1e3 * epsilon + 1e-9 * r;
+    }
+
+    /**
+     * Adds the edges between consecutive sites around the vertex (x,y),
+     * except the edge the vertex was reached from.
+     */
+    private void addOutgoingEdges(Trace incoming, List<Site> vertexSites, double x, double y, Vector vertex, Deque<Trace> traces) {
+        int k = vertexSites.size();
+        double[][] feet = new double[k][];
+        double[] angles = new double[k];
+        double[] order = new double[k];
+        for (int i = 0; i < k; i++) {
+            Site s = vertexSites.get(i);
+            feet[i] = s.foot(x, y);
+            angles[i] = Math.atan2(feet[i][1] - y, feet[i][0] - x);
+            if (angles[i] < -Math.PI + 1e-9) {
+                //keep feet in the direction of -x together
+                angles[i] += 2 * Math.PI;
+            }
+            if (!s.point) {
+                //an edge whose foot is its endpoint lies next to the point site of that endpoint.
+                //order it by the side it continues to
+                double ex = s.x + s.length / 2 * s.tx - x;
+                double ey = s.y + s.length / 2 * s.ty - y;
+                order[i] = Math.signum((feet[i][0] - x) * ey - (feet[i][1] - y) * ex);
+            }
+        }
+        Integer[] sorted = new Integer[k];
+        for (int i = 0; i < k; i++) {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, (Integer i1, Integer i2) -> {
+            if (Math.abs(angles[i1] - angles[i2]) < 1e-9) {
+                return Double.compare(order[i1], order[i2]);
+            }
+            return Double.compare(angles[i1], angles[i2]);
+        });
+
+        for (int i = 0; i < k; i++) {
+            int i1 = sorted[i];
+            int i2 = sorted[(i + 1) % k];
+            Site s1 = vertexSites.get(i1);
+            Site s2 = vertexSites.get(i2);
+            if ((s1 == incoming.a && s2 == incoming.b) || (s1 == incoming.b && s2 == incoming.a)) {
+                continue;
+            }
+            Bisector bs = Bisector.create(s1, s2, x, y);
+            if (bs == null) {
+                continue;
+            }
+
+            //the edge leaves between the directions to the two feet
+            double u1x = feet[i1][0] - x, u1y = feet[i1][1] - y;
+            double u2x = feet[i2][0] - x, u2y = feet[i2][1] - y;
+            double l1 = Math.hypot(u1x, u1y), l2 = Math.hypot(u2x, u2y);
+            double dirX, dirY;
+            if (Math.hypot(feet[i1][0] - feet[i2][0], feet[i1][1] - feet[i2][1]) <= epsilon || l1 <= epsilon || l2 <= epsilon) {
+                //same foot: the edge goes towards it
+                dirX = l1 > epsilon ? u1x : u2x;
+                dirY = l1 > epsilon ? u1y : u2y;
+            } else {
+                u1x /= l1;
+                u1y /= l1;
+                u2x /= l2;
+                u2y /= l2;
+                double cross = u1x * u2y - u1y * u2x;
+                if (cross > 1e-12) {
+                    dirX = u1x + u2x;
+                    dirY = u1y + u2y;
+                } else if (cross < -1e-12) {
+                    dirX = -(u1x + u2x);
+                    dirY = -(u1y + u2y);
+                } else {
+                    dirX = -u1y;
+                    dirY = u1x;
+                }
+            }
+
+            double t = bs.parameterOf(x, y);
+            double[] derivative = bs.derivative(t);
+            double direction = Math.signum(dirX * derivative[0] + dirY * derivative[1]);
+            if (direction == 0) {
+                continue;
+            }
+            traces.add(new Trace(bs, s1, s2, vertex, t, direction, vertexSites));
+        }
+    }
+
+    /**
+     * Real roots of a*t^2+b*t+c=0.
+     */
+    private static double[] solveQuadratic(double a, double b, double c) {
+        if (a == 0) {
+            if (b == 0) {
+                return new double[0];
+            }
+            return new double[]{-c / b};
+        }
+        double discriminant = b * b - 4 * a * c;
+        if (discriminant < 0) {
+            if (discriminant < -1e-12 * b * b) {
+                return new double[0];
+            }
+            //touches the bisector
+            discriminant = 0;
+        }
+        double q = -0.5 * (b + Math.copySign(Math.sqrt(discriminant), b));
+        if (q == 0) {
+            return new double[]{-b / (2 * a)};
+        }
+        return new double[]{q / a, c / q};
+    }
+}
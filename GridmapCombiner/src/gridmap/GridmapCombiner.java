@@ -1,13 +1,17 @@
 package gridmap;
 
+import gridmaplp.BinaryInterchange;
 import java.awt.Color;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Scanner;
@@ -33,10 +37,20 @@ public class GridmapCombiner {
      * @param args the command line arguments
      */
     public static void main(String[] args) {
-        //which settings to generate gridmaps for. Needs at least 1 option from every categorgie.
+        //a single run if a map is given, otherwise a sweep over the settings below.
+        for (String arg : args) {
+            if (arg.equals("-m") || arg.equals("--map")) {
+                GridmapCombiner combiner = new GridmapCombiner(args);
+                if (combiner.failed) {
+                    //lets the sweep see that the job failed
+                    System.exit(1);
+                }
+                return;
+            }
+        }
 
-        //We are constructing args in here for convenience, so we can generate multiple settings. 
-        //Easily adapted to work via the commandline instead.
+        //which settings to generate gridmaps for. Needs at least 1 option from every categorgie.
+        //These are the defaults of the sweep. They can be replaced from the commandline or a sweep file, see SweepScheduler.
         List<Double> dilations = new ArrayList(); //default 0.33
 //        dilations.add(0.0);
         dilations.add(0.33);
@@ -61,33 +75,7 @@ public class GridmapCombiner {
         mapAndSites.add(new Pair("UKMap.ipe", "UKConstituenciesColor.tsv"));
 //        mapAndSites.add(new Pair("UKMapLocalAuthoritiesStub.ipe", "UKLocalAuthoritiesColor.tsv"));
 
-        for (double dilation : dilations) {
-            for (double productivity : productivities) {
-                for (Pair<String, String> mapAndSite : mapAndSites) {
-                    String map = mapAndSite.getFirst();
-                    String sites = mapAndSite.getSecond();
-
-                    String outputFolderName = "combinedOutput/" + map + "Dil" + dilation + "Pro" + productivity + "/";
-                    System.out.println("exporting to folder: " + outputFolderName);
-                    int length = 10;
-
-                    args = new String[length];
-                    args[0] = "-m";
-                    args[1] = "../Data/maps/" + map;
-                    args[2] = "-o";
-                    args[3] = "../Data/" + outputFolderName;
-                    args[4] = "-s";
-                    args[5] = "../Data/maps/Sites/" + sites;
-                    args[6] = "-d";
-                    args[7] = "" + dilation;
-                    args[8] = "-p";
-                    args[9] = "" + productivity;
-
-                    new GridmapCombiner(args);
-                    System.out.println("Done with " + outputFolderName);
-                }
-            }
-        }
+        new SweepScheduler(args, dilations, productivities, mapAndSites).run();
     }
 
     //input ipe path
@@ -107,11 +95,34 @@ public class GridmapCombiner {
     private String mosaicMapWeightInputPath;
     private String labeledPartitionOutput;
     private String labeledSiteFile;
+    //intermediate files in the binary interchange format
+    private String partitionBinaryPath;
+    private String labeledPartitionBinaryPath;
+    private String labeledSiteBinaryPath;
+    private String mosaicTilesPath;
 
     //partitioning paramaters
     private Double dilationThreshold;
     private Integer productivityThreshold;
 
+    //whether the programs are called in this jvm instead of through their jar files
+    private boolean inProcess;
+    //whether the intermediate files are in the binary interchange format instead of ipe and tsv
+    private boolean binary;
+    //folder holding the folders of the programs and the data folder
+    private String rootPath;
+    //maximum heap in megabytes of the jvms running the programs. Null for the java default.
+    private Integer memory;
+    //cache of the output of the stages. Null if the stages are always run.
+    private StageCache cache;
+    //whether a stage failed. The later stages are not run.
+    private boolean failed = false;
+
+    //stages of the pipeline in the order in which they are run, as stored in timing.
+    static final String[] STAGES = {"Partition generated", "Extra files generated", "Mosaic map generated", "grid map generated"};
+    //file in the output folder holding the running time of each stage
+    static final String TIMING_FILE = "timing.tsv";
+
     //used to calculate runtimes
     HashMap<String, Long> timing = new HashMap();
 
@@ -119,6 +130,8 @@ public class GridmapCombiner {
      * Generates a gridmap from the arguments by calling .jar files of other
      * programs.
      * Outputs intermediate files for each program.
+     * With -inProcess the programs are called as libraries instead, and only
+     * the gridmap is written.
      *
      * @param args
      */
@@ -129,26 +142,102 @@ public class GridmapCombiner {
         //make a partition using the input map (and the input sites if density is enabled)
         timing.put(mapPath + " start", System.currentTimeMillis());
 
-        generatePartition();
+        if (inProcess) {
+            runInProcess();
+        } else {
+            runWithFiles();
+        }
+
+        //print the running times
+        for (String key : timing.keySet()) {
+            System.out.println("key = " + key);
+            System.out.println(timing.get(key));
+        }
+        writeTiming();
+    }
+
+    /**
+     * Writes the running time of each stage that finished to the output
+     * folder, one stage per line: {stage}\t{milliseconds}.
+     */
+    private void writeTiming() {
+        List<String> lines = new ArrayList();
+        Long previous = timing.get(mapPath + " start");
+        for (String stage : STAGES) {
+            Long end = timing.get(mapPath + " " + stage);
+            if (end == null) {
+                //the stage did not finish
+                break;
+            }
+            lines.add(stage + "\t" + (end - previous));
+            previous = end;
+        }
+        try {
+            Files.write(Paths.get(outputPath + TIMING_FILE), lines);
+        } catch (IOException ex) {
+            Logger.getLogger(GridmapCombiner.class
+                    .getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    private void runWithFiles() {
+        if (!generatePartition()) {
+            failed = true;
+            return;
+        }
         timing.put(mapPath + " Partition generated", System.currentTimeMillis());
         //make a weight file using output of partition and input sites.
 //        //also ensure that there is a label in each partition
-        makeExtraFiles();
+        if (!makeExtraFiles()) {
+            failed = true;
+            return;
+        }
         timing.put(mapPath + " Extra files generated", System.currentTimeMillis());
 //        //Make a mosaic map using the weight file and the output of partition
-        generateMosaicMap();
+        if (!generateMosaicMap()) {
+            failed = true;
+            return;
+        }
         timing.put(mapPath + " Mosaic map generated", System.currentTimeMillis());
 //        //make a gridmap using the output of the mosaic map and the input sites
-        generateGridMap();
+        if (!generateGridMap()) {
+            failed = true;
+            return;
+        }
         timing.put(mapPath + " grid map generated", System.currentTimeMillis());
+    }
 
-        //print the running times
-        for (String key : timing.keySet()) {
-            System.out.println("key = " + key);
-            System.out.println(timing.get(key));
+    /**
+     * Runs the pipeline in this jvm. The partition, weights, labeled sites and
+     * mosaic tiles are passed in memory.
+     */
+    private void runInProcess() {
+        try {
+            List<Site> sites = getSites();
+            InProcessPipeline pipeline = new InProcessPipeline(sites, useHexagons());
+            List<Polygon> partition = pipeline.generatePartition(mapPath, dilationThreshold, productivityThreshold);
+            timing.put(mapPath + " Partition generated", System.currentTimeMillis());
+
+            List<Pair<Site, Integer>> weights = labelPartition(partition, sites);
+            timing.put(mapPath + " Extra files generated", System.currentTimeMillis());
+
+            pipeline.generateMosaicMap(partition, weights);
+            timing.put(mapPath + " Mosaic map generated", System.currentTimeMillis());
+
+            pipeline.generateGridMap(gridmapOutputPath, getProvinceMappingPath());
+            timing.put(mapPath + " grid map generated", System.currentTimeMillis());
+        } catch (IOException ex) {
+            Logger.getLogger(GridmapCombiner.class
+                    .getName()).log(Level.SEVERE, null, ex);
+            failed = true;
         }
     }
 
+    //local authorities needs a hex map
+    private boolean useHexagons() {
+        return mapPath.contains("LocalAuthorities");
+    }
+
     private void parseArguments(String[] args) {
         Options options = new Options();
 
@@ -175,6 +264,30 @@ public class GridmapCombiner {
         productivity.setRequired(true);
         options.addOption(productivity);
 
+        Option inProcessOption = new Option("inProcess", "inProcess", false, "Call the programs in this jvm and pass their results in memory. Only the gridmap is written. Requires their jars on the classpath");
+        options.addOption(inProcessOption);
+
+        Option binaryOption = new Option("binary", "binary", false, "Pass the partition, labeled sites and mosaic tiles between the programs in the binary interchange format instead of ipe and tsv files. The partition, mosaic map and gridmap are still written as ipe");
+        options.addOption(binaryOption);
+
+        Option rootOption = new Option("root", "root", true, "Folder holding the GridMapPartitioner, mosaic-maps, GridMapLP and Data folders. Default ..");
+        options.addOption(rootOption);
+
+        Option memoryOption = new Option("memory", "memory", true, "Maximum heap in megabytes of the jvms that run the programs. Default is the java default");
+        options.addOption(memoryOption);
+
+        Option cacheOption = new Option("cache", "cache", true, "Folder in which the output of the partition, mosaic map and gridmap stages is cached. Default {root}/Data/cache/");
+        options.addOption(cacheOption);
+
+        Option noCacheOption = new Option("noCache", "noCache", false, "Always run all stages");
+        options.addOption(noCacheOption);
+
+        Option cacheSizeOption = new Option("cacheSize", "cacheSize", true, "Maximum size of the cache in megabytes. Default 1024");
+        options.addOption(cacheSizeOption);
+
+        Option cacheAgeOption = new Option("cacheAge", "cacheAge", true, "Cached stages that are not used for this amount of days are removed. Default 30");
+        options.addOption(cacheAgeOption);
+
         CommandLineParser parser = new DefaultParser();
         HelpFormatter formatter = new HelpFormatter();
         CommandLine cmd = null;
@@ -199,27 +312,130 @@ public class GridmapCombiner {
         mosaicOutputPath = outputPath + "mosaicMapOutput.ipe";
         gridmapOutputPath = outputPath + "gridMapOutput.ipe";
 
+        partitionBinaryPath = outputPath + "partition.gmb";
+        labeledPartitionBinaryPath = outputPath + "partitionLabeled.gmb";
+        labeledSiteBinaryPath = outputPath + "siteLabeled.gmb";
+        mosaicTilesPath = outputPath + "mosaicTiles.gmb";
+
         File f = new File(outputPath);
         f.mkdir();
         //partitioning paramters
         dilationThreshold = Double.parseDouble(cmd.getOptionValue("dilation"));
         productivityThreshold = (int) Double.parseDouble(cmd.getOptionValue("productivity"));
+        inProcess = cmd.hasOption("inProcess");
+        binary = cmd.hasOption("binary");
+        rootPath = cmd.getOptionValue("root", "..");
+        if (cmd.hasOption("memory")) {
+            memory = Integer.parseInt(cmd.getOptionValue("memory"));
+        }
+        if (!cmd.hasOption("noCache")) {
+            String cachePath = cmd.getOptionValue("cache", rootPath + "/Data/cache/");
+            long cacheSize = Long.parseLong(cmd.getOptionValue("cacheSize", "1024")) * 1024 * 1024;
+            long cacheAge = Long.parseLong(cmd.getOptionValue("cacheAge", "30")) * 24 * 60 * 60 * 1000;
+            cache = new StageCache(Paths.get(cachePath), cacheSize, cacheAge);
+        }
+    }
+
+    /**
+     * Returns the command to start a jvm with the given jvm options.
+     *
+     * @param jvmOptions
+     * @return
+     */
+    private String javaCommand(String jvmOptions) {
+        String command = "java " + jvmOptions;
+        if (memory != null) {
+            command += "-Xmx" + memory + "m ";
+        }
+        return command;
+    }
+
+    /**
+     * Runs the command of a stage, unless the stage has been run on the same
+     * input files and parameters before. In that case the output files are
+     * copied from the cache. The output files of an earlier run are removed
+     * first, and the output is only cached if the command succeeded, such
+     * that a failed run can not put stale or partial files in the cache.
+     *
+     * @param stage
+     * @param commandLineString
+     * @param inputFiles all files read by the stage, including the jar
+     * @param parameters all parameters that change the output
+     * @param outputFiles
+     * @return whether the stage succeeded
+     */
+    private boolean executeStage(String stage, String commandLineString, List<String> inputFiles, List<String> parameters, List<String> outputFiles) {
+        List<Path> outputs = new ArrayList();
+        for (String outputFile : outputFiles) {
+            outputs.add(Paths.get(outputFile));
+        }
+        try {
+            for (Path output : outputs) {
+                Files.deleteIfExists(output);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(GridmapCombiner.class
+                    .getName()).log(Level.SEVERE, null, ex);
+            return false;
+        }
+        if (cache == null) {
+            return executeCommandLine(commandLineString) == 0;
+        }
+        List<Path> inputs = new ArrayList();
+        for (String inputFile : inputFiles) {
+            inputs.add(Paths.get(inputFile));
+        }
+
+        String key;
+        try {
+            key = StageCache.key(stage, inputs, parameters);
+        } catch (IOException ex) {
+            Logger.getLogger(GridmapCombiner.class
+                    .getName()).log(Level.SEVERE, null, ex);
+            return executeCommandLine(commandLineString) == 0;
+        }
+        if (cache.restore(key, outputs)) {
+            System.out.println("Using cached " + stage + " " + key);
+            return true;
+        }
+        if (executeCommandLine(commandLineString) != 0) {
+            return false;
+        }
+        cache.store(key, outputs);
+        return true;
+    }
+
+    //mapping from site labels to provinces, used by GridMapLP
+    private String getProvinceMappingPath() {
+        return rootPath + "/Data/maps/Sites/provinceMapping.tsv";
     }
 
     /**
      * Generates a partition from the settings. Waits until the partition is
      * generated.
      * Output partition is in {@code partitionOutputPath}
+     *
+     * @return whether the partition was generated
      */
-    private void generatePartition() {
-        String commandLineString = "java -jar ../GridMapPartitioner/store/GridMapPartitioner.jar "
+    private boolean generatePartition() {
+        String jarPath = rootPath + "/GridMapPartitioner/store/GridMapPartitioner.jar";
+        String commandLineString = javaCommand("") + "-jar " + jarPath + " "
                                    + "-i " + mapPath + " "
                                    + "-s " + siteDataPath + " "
                                    + "-o " + partitionOutputPath + " "
                                    + "-d " + dilationThreshold + " "
                                    + "-p " + productivityThreshold + " ";
+        List<String> outputFiles = new ArrayList();
+        outputFiles.add(partitionOutputPath);
+        if (binary) {
+            commandLineString += "-binaryOutput " + partitionBinaryPath + " ";
+            outputFiles.add(partitionBinaryPath);
+        }
 
-        executeCommandLine(commandLineString);
+        return executeStage("partition", commandLineString,
+                            Arrays.asList(jarPath, mapPath, siteDataPath),
+                            Arrays.asList("" + dilationThreshold, "" + productivityThreshold, "" + binary),
+                            outputFiles);
     }
 
     /**
@@ -227,92 +443,208 @@ public class GridmapCombiner {
      * Weightfile: amount of sites per region
      * Sitefile with parent: Holds for each site which region it is in.
      * LabeledPartitionFile: Adds a label to each partition region
+     *
+     * @return whether the files were made
      */
-    private void makeExtraFiles() {
+    private boolean makeExtraFiles() {
+        if (binary) {
+            return makeExtraBinaryFiles();
+        }
         try {
             File f = new File(partitionOutputPath);
             IPEReader ipeReader = IPEReader.fileReader(f);
-            List<ReadItem> polygons = getPolygons(ipeReader);
+            List<Polygon> polygons = getPolygons(ipeReader);
             List<Site> sites = getSites();
-            String weightOutputString = "";
 
             //will hold the labels to be added.
             ArrayList<String> labelStrings = new ArrayList();
 
-            for (ReadItem ri : polygons) {
-                int weight = 0;
-                //get the site that is most central in the polygon ri.
-                Site centralSite = getCentralSite((Polygon) ri.getGeometry(), sites);
-                if (centralSite == null) {
-                    //some regions may be empty. We do not represent these.
-                    continue;
-                }
-
-                //count the amount of sites
-                for (Site s : sites) {
-                    Polygon p = (Polygon) ri.getGeometry();
-                    if (p.contains(new Vector(s.c.x, s.c.y))) {
-                        s.parent = centralSite.label;
-                        weight++;
+            //Write the weight per region.
+            try (BufferedWriter weightWriter = Files.newBufferedWriter(Paths.get(mosaicMapWeightInputPath))) {
+                for (Pair<Site, Integer> weight : labelPartition(polygons, sites)) {
+                    if (weight == null) {
+                        continue;
                     }
+                    //give the region the name of one of the sites inside
+                    Site centralSite = weight.getFirst();
+                    weightWriter.write(centralSite.label + "\t" + weight.getSecond() + "\n");
+                    labelStrings.add(getIpeLabel(centralSite.c, centralSite.label));
                 }
-
-                //give the region the name of one of the sites inside
-                String label = centralSite.label;
-                weightOutputString += label + "\t" //add to the weightfileString
-                                      + weight + "\n";
-                labelStrings.add(getIpeLabel(centralSite.c, centralSite.label));
-
             }
-            Files.write(Paths.get(mosaicMapWeightInputPath), weightOutputString.getBytes()); //Write the weight per region.
             writeLabeledFile(partitionOutputPath, labelStrings); //add labels to the ipe file
             writeSiteFile(labeledSiteFile, sites); //write a file that contains for each site which label it is in.
+            return true;
+        } catch (IOException ex) {
+            Logger.getLogger(GridmapCombiner.class
+                    .getName()).log(Level.SEVERE, null, ex);
+            return false;
+        }
+
+    }
+
+    /**
+     * Makes the extra required files in the binary interchange format once
+     * the partition is known.
+     * LabeledPartitionFile: the regions with their label and weight.
+     * Sitefile with parent: Holds for each site which region it is in.
+     *
+     * @return whether the files were made
+     */
+    private boolean makeExtraBinaryFiles() {
+        try {
+            BinaryInterchange.Reader partition = new BinaryInterchange.Reader(Paths.get(partitionBinaryPath));
+            List<Polygon> polygons = new ArrayList();
+            for (int i = 0; i < partition.getCount(); i++) {
+                List<Vector> vertices = new ArrayList();
+                for (int j = 0; j < partition.getVertexCount(i); j++) {
+                    vertices.add(new Vector(partition.getVertexX(i, j), partition.getVertexY(i, j)));
+                }
+                polygons.add(new Polygon(vertices));
+            }
+            List<Site> sites = getSites();
+
+            BinaryInterchange.Writer partitionWriter = new BinaryInterchange.Writer(BinaryInterchange.PARTITION);
+            List<Pair<Site, Integer>> weights = labelPartition(polygons, sites);
+            for (int i = 0; i < polygons.size(); i++) {
+                Polygon p = polygons.get(i);
+                double[] xs = new double[p.vertexCount()];
+                double[] ys = new double[p.vertexCount()];
+                for (int j = 0; j < p.vertexCount(); j++) {
+                    xs[j] = p.vertex(j).getX();
+                    ys[j] = p.vertex(j).getY();
+                }
+                Pair<Site, Integer> weight = weights.get(i);
+                int color = partition.getColor(i);
+                if (weight == null) {
+                    partitionWriter.addRegion(xs, ys, null, 0, 0, -1, color);
+                } else {
+                    //give the region the name of one of the sites inside
+                    Site centralSite = weight.getFirst();
+                    partitionWriter.addRegion(xs, ys, centralSite.label, centralSite.c.x, centralSite.c.y, weight.getSecond(), color);
+                }
+            }
+            partitionWriter.write(Paths.get(labeledPartitionBinaryPath));
 
+            BinaryInterchange.Writer siteWriter = new BinaryInterchange.Writer(BinaryInterchange.SITES);
+            for (Site s : sites) {
+                siteWriter.addSite(s.parent, s.label, s.c.x, s.c.y, s.color.getRGB());
+            }
+            siteWriter.write(Paths.get(labeledSiteBinaryPath));
+            return true;
         } catch (IOException ex) {
             Logger.getLogger(GridmapCombiner.class
                     .getName()).log(Level.SEVERE, null, ex);
+            return false;
         }
+    }
 
+    /**
+     * Labels each region of the partition with its most central site, and
+     * sets the parent of the sites in the region to this label.
+     * Returns the central site of each region with the amount of sites in the
+     * region, in the order of the regions. The entry of a region without sites
+     * is null. The sites are bucketed by the regions containing them in a single pass
+     * over the sites.
+     *
+     * @param polygons
+     * @param sites
+     * @return
+     */
+    private List<Pair<Site, Integer>> labelPartition(List<Polygon> polygons, List<Site> sites) {
+        //sites inside each polygon, in the order of the sites
+        List<List<Site>> buckets = new ArrayList();
+        for (Polygon p : polygons) {
+            buckets.add(new ArrayList());
+        }
+        PolygonGrid grid = new PolygonGrid(polygons);
+        for (Site s : sites) {
+            //a site on the boundary between regions is in all of them
+            for (int i : grid.containing(s.c.x, s.c.y)) {
+                buckets.get(i).add(s);
+            }
+        }
+
+        List<Pair<Site, Integer>> weights = new ArrayList();
+        for (List<Site> inPolygonSites : buckets) {
+            //get the site that is most central in the polygon.
+            Site centralSite = getCentralSite(inPolygonSites);
+            if (centralSite == null) {
+                //some regions may be empty. We do not represent these.
+                weights.add(null);
+                continue;
+            }
+            //a site in multiple regions gets the label of the last one
+            for (Site s : inPolygonSites) {
+                s.parent = centralSite.label;
+            }
+            weights.add(new Pair(centralSite, inPolygonSites.size()));
+        }
+        return weights;
     }
 
     /**
      * Generates a mosaicmap in mosaicOutputPath.
      */
-    private void generateMosaicMap() {
+    private boolean generateMosaicMap() {
         File f = new File("");
         System.out.println(f.getAbsolutePath());
         //test code
-        String commandLine = "java -Djava.awt.headless=true -jar ../mosaic-maps/dist/MosaicMaps.jar"
-                             + " -map " + labeledPartitionOutput
-                             + " -data " + mosaicMapWeightInputPath
-                             + " -ipe " + mosaicOutputPath
-                             + " -unit 1";
-        //local authorities needs a hex map
-        if (mapPath.contains("LocalAuthorities")) {
+        String jarPath = rootPath + "/mosaic-maps/dist/MosaicMaps.jar";
+        String commandLine = javaCommand("-Djava.awt.headless=true ") + "-jar " + jarPath;
+        List<String> inputFiles = new ArrayList();
+        inputFiles.add(jarPath);
+        List<String> outputFiles = new ArrayList();
+        outputFiles.add(mosaicOutputPath);
+        if (binary) {
+            //the weights are part of the labeled partition
+            commandLine += " -map " + labeledPartitionBinaryPath
+                           + " -tiles " + mosaicTilesPath;
+            inputFiles.add(labeledPartitionBinaryPath);
+            outputFiles.add(mosaicTilesPath);
+        } else {
+            commandLine += " -map " + labeledPartitionOutput
+                           + " -data " + mosaicMapWeightInputPath;
+            inputFiles.add(labeledPartitionOutput);
+            inputFiles.add(mosaicMapWeightInputPath);
+        }
+        commandLine += " -ipe " + mosaicOutputPath
+                       + " -unit 1";
+        if (useHexagons()) {
             commandLine += " -hexagonal";
         } else {
             commandLine += " -square";
         }
 
         System.out.println("commandLine = " + commandLine);
-        executeCommandLine(commandLine);
+        return executeStage("mosaic map", commandLine, inputFiles,
+                            Arrays.asList("1", "" + useHexagons(), "" + binary),
+                            outputFiles);
     }
 
     /**
      * Generates the gridmap in gridmapOutputPath
+     *
+     * @return whether the gridmap was generated
      */
-    private void generateGridMap() {
-
-        String commandString = "java -jar ../GridMapLP/store/GridMapLP.jar"
-                               + " -m " + mosaicOutputPath
-                               + " -s" + labeledSiteFile
-                               + " -o " + gridmapOutputPath;
-        //LocalAuthorities needs a hex map
-        if (mapPath.contains("LocalAuthorities")) {
+    private boolean generateGridMap() {
+
+        String jarPath = rootPath + "/GridMapLP/store/GridMapLP.jar";
+        //GridMapLP recognizes files in the binary interchange format
+        String mosaicInput = binary ? mosaicTilesPath : mosaicOutputPath;
+        String siteInput = binary ? labeledSiteBinaryPath : labeledSiteFile;
+        String commandString = javaCommand("") + "-jar " + jarPath
+                               + " -m " + mosaicInput
+                               + " -s" + siteInput
+                               + " -o " + gridmapOutputPath
+                               + " -provinces " + getProvinceMappingPath();
+        if (useHexagons()) {
             commandString += " -hex";
         }
 
-        executeCommandLine(commandString);
+        return executeStage("gridmap", commandString,
+                            Arrays.asList(jarPath, mosaicInput, siteInput, getProvinceMappingPath()),
+                            Arrays.asList("" + useHexagons()),
+                            Arrays.asList(gridmapOutputPath));
 
     }
 
@@ -361,13 +693,11 @@ public class GridmapCombiner {
      * @param sites
      */
     private void writeSiteFile(String labeledSiteFile, List<Site> sites) {
-        try {
-            List<String> lines = new ArrayList();
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(labeledSiteFile))) {
             for (Site s : sites) {
-                lines.add(s.toString());
+                writer.write(s.toString());
+                writer.newLine();
             }
-            Files.write(Paths.get(labeledSiteFile), lines);
-
         } catch (IOException ex) {
             Logger.getLogger(GridmapCombiner.class
                     .getName()).log(Level.SEVERE, null, ex);
@@ -408,19 +738,24 @@ public class GridmapCombiner {
      * Runs the commandlinestring and waits for the result.
      *
      * @param commandLineString
+     * @return the exit value of the command, or -1 if it could not be run
      */
-    private void executeCommandLine(String commandLineString) {
+    private int executeCommandLine(String commandLineString) {
         System.out.println("executing string commandLineString = " + commandLineString);
         try {
             Runtime rt = Runtime.getRuntime();
             Process p = rt.exec(commandLineString);
             inheritIO(p.getInputStream(), System.out);
             inheritIO(p.getErrorStream(), System.err);
-            p.waitFor();
-
+            int exitValue = p.waitFor();
+            if (exitValue != 0) {
+                System.err.println("Command failed with exit value " + exitValue + ": " + commandLineString);
+            }
+            return exitValue;
         } catch (IOException | InterruptedException ex) {
             Logger.getLogger(GridmapCombiner.class
                     .getName()).log(Level.SEVERE, null, ex);
+            return -1;
         }
     }
 
@@ -432,35 +767,28 @@ public class GridmapCombiner {
      * @return
      * @throws IOException
      */
-    private List<ReadItem> getPolygons(IPEReader ipeReader) throws IOException {
-        List<ReadItem> polygonList = new ArrayList();
+    private List<Polygon> getPolygons(IPEReader ipeReader) throws IOException {
+        List<Polygon> polygonList = new ArrayList();
         List<ReadItem> items = ipeReader.read(1); //only read the firstpage
         for (ReadItem ri : items) {
             BaseGeometry geometry = ri.getGeometry();
 
             if (geometry.getClass() == Polygon.class) {
-                polygonList.add(ri);
+                polygonList.add((Polygon) geometry);
             }
         }
         return polygonList;
     }
 
     /**
-     * Returns the site from {@code sites} that is
-     * 1: inside p.
-     * 2: The closest to the average position of all sites in p.
+     * Returns the site from {@code inPolygonSites}, the sites inside a
+     * polygon, that is the closest to the average position of these sites.
+     * Null if there are no sites.
      *
-     * @param p
-     * @param sites
+     * @param inPolygonSites
      * @return
      */
-    private Site getCentralSite(Polygon p, List<Site> sites) {
-        List<Site> inPolygonSites = new ArrayList();
-        for (Site s : sites) {
-            if (p.contains(new Vector(s.c.x, s.c.y))) {
-                inPolygonSites.add(s);
-            }
-        }
+    private Site getCentralSite(List<Site> inPolygonSites) {
         //get the average centerX,centerY of the sites
         double centerX = 0;
         double centerY = 0;
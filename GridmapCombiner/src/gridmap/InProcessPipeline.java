@@ -0,0 +1,138 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gridmap;
+
+import gridmaplp.GridMapLP;
+import gridmaplp.MosaicCellMap;
+import gridmaplp.SiteMap;
+import gridmappartioner.GridMapPartioner;
+import ipe.Document;
+import ipe.objects.Path;
+import ipe.objects.Text;
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import main.MosaicMaps;
+import model.Cartogram.MosaicCartogram;
+import model.subdivision.Map;
+import model.util.IpeImporter;
+import nl.tue.geometrycore.geometry.Vector;
+import nl.tue.geometrycore.geometry.linear.Polygon;
+import nl.tue.geometrycore.util.Pair;
+import parameter.ParameterManager.Application.GridType;
+
+/**
+ * Runs the programs of the pipeline as libraries in this jvm. Results are
+ * passed on in memory instead of being written to an ipe or tsv file and
+ * parsed again by the next program. Requires the jars of the partitioner,
+ * mosaic maps and GridMapLP on the classpath.
+ *
+ * @author msondag
+ */
+class InProcessPipeline {
+
+    private final List<Site> sites;
+    private final boolean useHexagons;
+
+    private MosaicCartogram mosaicMap;
+
+    InProcessPipeline(List<Site> sites, boolean useHexagons) {
+        this.sites = sites;
+        this.useHexagons = useHexagons;
+    }
+
+    /**
+     * Partitions the map in {@code mapPath}. The polygons are the same as
+     * those in the partition ipe file.
+     *
+     * @param mapPath
+     * @param dilationThreshold
+     * @param productivityThreshold
+     * @return
+     * @throws IOException
+     */
+    List<Polygon> generatePartition(String mapPath, double dilationThreshold, int productivityThreshold) throws IOException {
+        List<gridmappartioner.Site> partitionSites = new ArrayList();
+        for (Site s : sites) {
+            partitionSites.add(new gridmappartioner.Site(s.c.x, s.c.y, s.label));
+        }
+        GridMapPartioner partitioner = new GridMapPartioner(dilationThreshold, productivityThreshold, 1);
+        return partitioner.partition(GridMapPartioner.readPolygons(new File(mapPath)), partitionSites);
+    }
+
+    /**
+     * Generates a mosaic map of the partition. Each region is labeled by its
+     * central site and has the weight that goes with it. The weight of an
+     * empty region is null.
+     *
+     * @param partition
+     * @param weights
+     */
+    void generateMosaicMap(List<Polygon> partition, List<Pair<Site, Integer>> weights) {
+        //the map is built from the same objects as the labeled partition file
+        Document document = new Document();
+        for (Polygon p : partition) {
+            Path path = new Path();
+            Vector start = p.vertex(0);
+            path.moveTo(start.getX(), start.getY());
+            for (int i = 1; i < p.vertexCount(); i++) {
+                path.lineTo(p.vertex(i).getX(), p.vertex(i).getY());
+            }
+            path.closePath();
+            document.addObject(path);
+        }
+        HashMap<String, Integer> labelWeights = new HashMap();
+        for (Pair<Site, Integer> weight : weights) {
+            if (weight == null) {
+                //empty region
+                continue;
+            }
+            Site centralSite = weight.getFirst();
+            Text text = new Text();
+            text.setText(centralSite.label);
+            text.setPosition(centralSite.c.x, centralSite.c.y);
+            document.addObject(text);
+            labelWeights.put(centralSite.label, weight.getSecond());
+        }
+
+        Map map = IpeImporter.importMap(document);
+        MosaicMaps.setWeights(map, labelWeights);
+        GridType type = useHexagons ? GridType.HEXAGONAL : GridType.SQUARE;
+        //one tile per site
+        mosaicMap = MosaicMaps.computeCartogram(map, type, 1, null, false, null, false);
+    }
+
+    /**
+     * Generates the gridmap from the mosaic map and the sites labeled with
+     * their region, and writes it to {@code gridmapOutputPath}.
+     *
+     * @param gridmapOutputPath
+     * @param provinceMappingPath
+     * @throws IOException
+     */
+    void generateGridMap(String gridmapOutputPath, String provinceMappingPath) throws IOException {
+        LinkedHashMap<String, List<gridmaplp.Coordinate>> tileCenters = new LinkedHashMap();
+        LinkedHashMap<String, List<Point2D>> centers = MosaicMaps.tileCenters(mosaicMap);
+        for (String label : centers.keySet()) {
+            List<gridmaplp.Coordinate> coordinates = new ArrayList();
+            for (Point2D center : centers.get(label)) {
+                coordinates.add(new gridmaplp.Coordinate(center.getX(), center.getY()));
+            }
+            tileCenters.put(label, coordinates);
+        }
+
+        SiteMap siteMap = new SiteMap();
+        for (Site s : sites) {
+            siteMap.addSite(s.parent, s.label, s.c.x, s.c.y, s.color);
+        }
+        new GridMapLP(new MosaicCellMap(tileCenters), siteMap, Paths.get(gridmapOutputPath), Paths.get(provinceMappingPath), useHexagons);
+    }
+}
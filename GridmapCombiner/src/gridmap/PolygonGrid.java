@@ -0,0 +1,120 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gridmap;
+
+import java.util.ArrayList;
+import java.util.List;
+import nl.tue.geometrycore.geometry.Vector;
+import nl.tue.geometrycore.geometry.linear.Polygon;
+import nl.tue.geometrycore.util.DoubleUtil;
+
+/**
+ * Uniform grid over the bounding box of a set of polygons. Each cell holds the
+ * polygons whose bounding box overlaps the cell, such that only the polygons
+ * in the cell of a point have to be tested to find the polygons containing
+ * the point.
+ *
+ * @author msondag
+ */
+class PolygonGrid {
+
+    private final List<Polygon> polygons;
+    //bounding box of each polygon: minX, minY, maxX, maxY
+    private final double[][] boxes;
+
+    private double minX = Double.MAX_VALUE;
+    private double minY = Double.MAX_VALUE;
+    private double maxX = -Double.MAX_VALUE;
+    private double maxY = -Double.MAX_VALUE;
+    private final int columns;
+    private final int rows;
+    private final double cellWidth;
+    private final double cellHeight;
+    //indices of the polygons overlapping each cell, in the order of the polygons
+    private final List<List<Integer>> cells = new ArrayList();
+
+    PolygonGrid(List<Polygon> polygons) {
+        this.polygons = polygons;
+        boxes = new double[polygons.size()][];
+        for (int i = 0; i < polygons.size(); i++) {
+            double[] box = boundingBox(polygons.get(i));
+            boxes[i] = box;
+            minX = Math.min(minX, box[0]);
+            minY = Math.min(minY, box[1]);
+            maxX = Math.max(maxX, box[2]);
+            maxY = Math.max(maxY, box[3]);
+        }
+
+        //about one cell per polygon
+        columns = Math.max(1, (int) Math.ceil(Math.sqrt(polygons.size())));
+        rows = columns;
+        //cells have a positive size such that a point always maps to a cell
+        cellWidth = Math.max(maxX - minX, 1) / columns;
+        cellHeight = Math.max(maxY - minY, 1) / rows;
+
+        for (int i = 0; i < columns * rows; i++) {
+            cells.add(new ArrayList());
+        }
+        for (int i = 0; i < polygons.size(); i++) {
+            double[] box = boxes[i];
+            for (int column = column(box[0]); column <= column(box[2]); column++) {
+                for (int row = row(box[1]); row <= row(box[3]); row++) {
+                    cells.get(row * columns + column).add(i);
+                }
+            }
+        }
+    }
+
+    //Polygon.contains accepts points within DoubleUtil.EPS of the boundary, so the box is widened by that amount.
+    private double[] boundingBox(Polygon p) {
+        double[] box = {Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        for (Vector v : p.vertices()) {
+            box[0] = Math.min(box[0], v.getX());
+            box[1] = Math.min(box[1], v.getY());
+            box[2] = Math.max(box[2], v.getX());
+            box[3] = Math.max(box[3], v.getY());
+        }
+        box[0] -= DoubleUtil.EPS;
+        box[1] -= DoubleUtil.EPS;
+        box[2] += DoubleUtil.EPS;
+        box[3] += DoubleUtil.EPS;
+        return box;
+    }
+
+    private int column(double x) {
+        return Math.min(columns - 1, Math.max(0, (int) ((x - minX) / cellWidth)));
+    }
+
+    private int row(double y) {
+        return Math.min(rows - 1, Math.max(0, (int) ((y - minY) / cellHeight)));
+    }
+
+    /**
+     * Returns the indices of the polygons that contain the point (x,y), in the
+     * order of the polygons.
+     *
+     * @param x
+     * @param y
+     * @return
+     */
+    List<Integer> containing(double x, double y) {
+        List<Integer> containing = new ArrayList();
+        if (x < minX || x > maxX || y < minY || y > maxY) {
+            return containing;
+        }
+        Vector point = new Vector(x, y);
+        for (int i : cells.get(row(y) * columns + column(x))) {
+            double[] box = boxes[i];
+            if (x < box[0] || x > box[2] || y < box[1] || y > box[3]) {
+                continue;
+            }
+            if (polygons.get(i).contains(point)) {
+                containing.add(i);
+            }
+        }
+        return containing;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gridmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache of the output files of the stages of the pipeline on disk. An entry is
+ * stored under a hash of everything the stage reads: the contents of its
+ * input files, including the jar of the program, and its parameters. If the
+ * same inputs are seen again, the stage does not have to be run. Entries that
+ * are not used for a while, or that do not fit in the maximum size, are
+ * removed starting with the least recently used one.
+ *
+ * Multiple jvms can use the same cache folder. An entry is written to a
+ * temporary folder and moved in place once it is complete.
+ *
+ * @author msondag
+ */
+class StageCache {
+
+    private static final String TEMPORARY_PREFIX = "tmp-";
+
+    private final Path cacheFolder;
+    //maximum size of all entries together in bytes
+    private final long maxSize;
+    //entries not used for this many milliseconds are removed
+    private final long maxAge;
+
+    StageCache(Path cacheFolder, long maxSize, long maxAge) {
+        this.cacheFolder = cacheFolder;
+        this.maxSize = maxSize;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Returns the key of a stage with the given input files and parameters.
+     * Only the contents of the files matter, not where they are stored.
+     * Missing input files are part of the key as well.
+     *
+     * @param stage
+     * @param inputFiles
+     * @param parameters
+     * @return
+     * @throws IOException
+     */
+    static String key(String stage, List<Path> inputFiles, List<String> parameters) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        update(digest, stage.getBytes(StandardCharsets.UTF_8));
+        for (Path input : inputFiles) {
+            if (Files.exists(input)) {
+                update(digest, Files.readAllBytes(input));
+            } else {
+                update(digest, new byte[0]);
+            }
+        }
+        for (String parameter : parameters) {
+            update(digest, parameter.getBytes(StandardCharsets.UTF_8));
+        }
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    //the length is added such that different splits of the same bytes give different keys
+    private static void update(MessageDigest digest, byte[] bytes) {
+        digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(bytes);
+    }
+
+    /**
+     * Copies the cached output files of the stage with the given key to
+     * {@code outputs}. Returns whether the stage was in the cache.
+     *
+     * @param key
+     * @param outputs
+     * @return
+     */
+    boolean restore(String key, List<Path> outputs) {
+        Path entry = cacheFolder.resolve(key);
+        if (!Files.isDirectory(entry)) {
+            return false;
+        }
+        try {
+            for (Path output : outputs) {
+                Files.copy(entry.resolve(output.getFileName()), output, StandardCopyOption.REPLACE_EXISTING);
+            }
+            //the age of an entry counts from its last use
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+        } catch (IOException ex) {
+            //removed while restoring. Run the stage instead.
+            System.err.println("Could not restore cache entry " + key + ": " + ex.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Stores the output files of the stage with the given key, and removes
+     * old entries afterwards. Only call this if the stage succeeded. Nothing
+     * is stored if an output file is missing.
+     *
+     * @param key
+     * @param outputs
+     */
+    void store(String key, List<Path> outputs) {
+        for (Path output : outputs) {
+            if (!Files.exists(output)) {
+                return;
+            }
+        }
+        Path entry = cacheFolder.resolve(key);
+        Path temporary = cacheFolder.resolve(TEMPORARY_PREFIX + UUID.randomUUID());
+        try {
+            Files.createDirectories(temporary);
+            for (Path output : outputs) {
+                Files.copy(output, temporary.resolve(output.getFileName()));
+            }
+            if (Files.exists(entry)) {
+                //stored by a different jvm in the mean time
+                delete(temporary);
+            } else {
+                Files.move(temporary, entry, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(StageCache.class.getName()).log(Level.SEVERE, null, ex);
+            delete(temporary);
+        }
+        evict();
+    }
+
+    /**
+     * Removes the entries that have not been used for longer than the maximum
+     * age, and then the least recently used entries until the cache fits in
+     * the maximum size.
+     */
+    void evict() {
+        File[] entryFiles = cacheFolder.toFile().listFiles();
+        if (entryFiles == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<File> entries = new ArrayList();
+        for (File entry : entryFiles) {
+            if (entry.getName().startsWith(TEMPORARY_PREFIX)) {
+                //may still be written by a different jvm
+                continue;
+            }
+            if (now - entry.lastModified() > maxAge) {
+                delete(entry.toPath());
+            } else {
+                entries.add(entry);
+            }
+        }
+
+        long size = 0;
+        for (File entry : entries) {
+            size += size(entry);
+        }
+        //least recently used first
+        entries.sort((File e1, File e2) -> Long.compare(e1.lastModified(), e2.lastModified()));
+        for (File entry : entries) {
+            if (size <= maxSize) {
+                break;
+            }
+            size -= size(entry);
+            delete(entry.toPath());
+        }
+    }
+
+    private long size(File entry) {
+        long size = 0;
+        File[] files = entry.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                size += f.length();
+            }
+        }
+        return size;
+    }
+
+    private void delete(Path entry) {
+        File[] files = entry.toFile().listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        entry.toFile().delete();
+    }
+}
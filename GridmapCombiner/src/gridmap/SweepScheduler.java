@@ -0,0 +1,411 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package gridmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import nl.tue.geometrycore.util.Pair;
+import org.apache.commons.cli.*;
+
+/**
+ * Runs the pipeline for every combination of maps, dilation thresholds and
+ * productivity thresholds in a sweep. The combinations are independent and
+ * run concurrently, each in its own jvm such that the programs do not share
+ * state. The output folder of a job is its working directory, so files the
+ * programs write to their working directory do not clash. The amount of
+ * concurrent jobs is bounded by the amount of cores and by the amount of
+ * memory.
+ *
+ * The sweep can be given on the commandline with -maps, -dilations and
+ * -productivities, or in a sweep file with -sweep. A sweep file has one line
+ * per setting: {setting}\t{values}, with the values separated by commas.
+ * Maps are given as {map}:{sites}. Lines starting with # are ignored.
+ * Settings on the commandline replace the ones in the sweep file.
+ *
+ * @author msondag
+ */
+public class SweepScheduler {
+
+    //default maximum heap of a job in megabytes
+    private static final int DEFAULT_JOB_MEMORY = 2048;
+
+    private List<Double> dilations;
+    private List<Integer> productivities;
+    private List<Pair<String, String>> mapAndSites;
+
+    //folder holding the folders of the programs and the data folder
+    private String rootPath;
+    //maximum amount of concurrent jobs
+    private int maxJobs = Integer.MAX_VALUE;
+    //maximum heap of a job in megabytes
+    private int jobMemory = DEFAULT_JOB_MEMORY;
+    //whether the jobs call the programs in their own jvm
+    private boolean inProcess;
+    //whether the jobs run all stages instead of using the stage cache
+    private boolean noCache;
+    //whether the jobs pass intermediate results in the binary interchange format
+    private boolean binary;
+
+    private final List<Job> jobs = new ArrayList();
+
+    /**
+     * Sets up the sweep from the arguments. Settings that are not in the
+     * arguments are taken from the given defaults.
+     *
+     * @param args
+     * @param dilations
+     * @param productivities
+     * @param mapAndSites
+     */
+    public SweepScheduler(String[] args, List<Double> dilations, List<Integer> productivities, List<Pair<String, String>> mapAndSites) {
+        this.dilations = dilations;
+        this.productivities = productivities;
+        this.mapAndSites = mapAndSites;
+        parseArguments(args);
+
+        for (Pair<String, String> mapAndSite : this.mapAndSites) {
+            for (double dilation : this.dilations) {
+                for (int productivity : this.productivities) {
+                    jobs.add(new Job(mapAndSite.getFirst(), mapAndSite.getSecond(), dilation, productivity));
+                }
+            }
+        }
+    }
+
+    private void parseArguments(String[] args) {
+        Options options = new Options();
+
+        Option sweepOption = new Option("sweep", "sweep", true, "Sweep file. One line per setting: {setting}\\t{values}, values seperated by commas");
+        options.addOption(sweepOption);
+
+        Option mapsOption = new Option("maps", "maps", true, "Maps with their sites, seperated by commas. Format: {map}:{sites}. Files are in {root}/Data/maps/ and {root}/Data/maps/Sites/");
+        options.addOption(mapsOption);
+
+        Option dilationsOption = new Option("dilations", "dilations", true, "Dilation thresholds, seperated by commas");
+        options.addOption(dilationsOption);
+
+        Option productivitiesOption = new Option("productivities", "productivities", true, "Productivity thresholds, seperated by commas");
+        options.addOption(productivitiesOption);
+
+        Option jobsOption = new Option("jobs", "jobs", true, "Maximum amount of concurrent jobs. Default is the amount of cores, bounded by memory");
+        options.addOption(jobsOption);
+
+        Option jobMemoryOption = new Option("jobMemory", "jobMemory", true, "Maximum heap of a job in megabytes. Default " + DEFAULT_JOB_MEMORY);
+        options.addOption(jobMemoryOption);
+
+        Option rootOption = new Option("root", "root", true, "Folder holding the GridMapPartitioner, mosaic-maps, GridMapLP and Data folders. Default ..");
+        options.addOption(rootOption);
+
+        Option inProcessOption = new Option("inProcess", "inProcess", false, "Jobs call the programs in their jvm instead of through their jars");
+        options.addOption(inProcessOption);
+
+        Option noCacheOption = new Option("noCache", "noCache", false, "Jobs always run all stages instead of using the stage cache in {root}/Data/cache/");
+        options.addOption(noCacheOption);
+
+        Option binaryOption = new Option("binary", "binary", false, "Jobs pass intermediate results between the programs in the binary interchange format");
+        options.addOption(binaryOption);
+
+        CommandLineParser parser = new DefaultParser();
+        HelpFormatter formatter = new HelpFormatter();
+        CommandLine cmd = null;
+
+        try {
+            cmd = parser.parse(options, args);
+        } catch (ParseException e) {
+            System.out.println(e.getMessage());
+            formatter.printHelp("utility-name", options);
+            System.exit(1);
+        }
+
+        HashMap<String, String> settings = new HashMap();
+        if (cmd.hasOption("sweep")) {
+            settings.putAll(readSweepFile(cmd.getOptionValue("sweep")));
+        }
+        for (String setting : new String[]{"maps", "dilations", "productivities"}) {
+            if (cmd.hasOption(setting)) {
+                settings.put(setting, cmd.getOptionValue(setting));
+            }
+        }
+
+        if (settings.containsKey("maps")) {
+            mapAndSites = new ArrayList();
+            for (String value : settings.get("maps").split(",")) {
+                String[] split = value.trim().split(":");
+                mapAndSites.add(new Pair(split[0], split[1]));
+            }
+        }
+        if (settings.containsKey("dilations")) {
+            dilations = new ArrayList();
+            for (String value : settings.get("dilations").split(",")) {
+                dilations.add(Double.parseDouble(value.trim()));
+            }
+        }
+        if (settings.containsKey("productivities")) {
+            productivities = new ArrayList();
+            for (String value : settings.get("productivities").split(",")) {
+                productivities.add(Integer.parseInt(value.trim()));
+            }
+        }
+
+        if (cmd.hasOption("jobs")) {
+            maxJobs = Integer.parseInt(cmd.getOptionValue("jobs"));
+        }
+        if (cmd.hasOption("jobMemory")) {
+            jobMemory = Integer.parseInt(cmd.getOptionValue("jobMemory"));
+        }
+        //the jobs run in a different working directory
+        rootPath = new File(cmd.getOptionValue("root", "..")).getAbsolutePath();
+        inProcess = cmd.hasOption("inProcess");
+        noCache = cmd.hasOption("noCache");
+        binary = cmd.hasOption("binary");
+    }
+
+    /**
+     * Reads the settings of a sweep file.
+     *
+     * @param sweepPath
+     * @return
+     */
+    private HashMap<String, String> readSweepFile(String sweepPath) {
+        HashMap<String, String> settings = new HashMap();
+        try {
+            for (String line : Files.readAllLines(Paths.get(sweepPath))) {
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] split = line.split("\t");
+                settings.put(split[0].trim(), split[1].trim());
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(SweepScheduler.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return settings;
+    }
+
+    /**
+     * Runs all jobs and prints a summary of their running times once they are
+     * done.
+     */
+    public void run() {
+        int poolSize = getPoolSize();
+        System.out.println("Running " + jobs.size() + " jobs, " + poolSize + " at a time");
+
+        //start with the largest maps such that they do not end up last on a single thread
+        List<Job> scheduleOrder = new ArrayList(jobs);
+        scheduleOrder.sort((Job j1, Job j2) -> Long.compare(j2.getMapFile().length(), j1.getMapFile().length()));
+
+        ExecutorService pool = Executors.newFixedThreadPool(poolSize);
+        List<Future<?>> results = new ArrayList();
+        for (Job job : scheduleOrder) {
+            results.add(pool.submit(() -> runJob(job)));
+        }
+        try {
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException | ExecutionException ex) {
+            Logger.getLogger(SweepScheduler.class.getName()).log(Level.SEVERE, null, ex);
+        } finally {
+            pool.shutdown();
+        }
+
+        printSummary();
+    }
+
+    /**
+     * Amount of jobs that run at the same time. At most one job per core, and
+     * the maximum heaps of the jobs together fit in the physical memory. A
+     * job runs in a jvm with a heap of -jobMemory, which starts each stage in
+     * another jvm with the same heap unless the stages run in process.
+     *
+     * @return
+     */
+    private int getPoolSize() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        long physicalMemory = ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getTotalMemorySize();
+        int jvmsPerJob = inProcess ? 1 : 2;
+        long memoryJobs = physicalMemory / (1024L * 1024L * jobMemory * jvmsPerJob);
+
+        int poolSize = (int) Math.min(cores, memoryJobs);
+        poolSize = Math.min(poolSize, maxJobs);
+        poolSize = Math.min(poolSize, jobs.size());
+        return Math.max(1, poolSize);
+    }
+
+    /**
+     * Runs the pipeline for the job in a new jvm and waits until it is done.
+     * The output of the job is written to log.txt in its output folder.
+     *
+     * @param job
+     */
+    private void runJob(Job job) {
+        File folder = job.getOutputFolder();
+        folder.mkdirs();
+        System.out.println("Starting " + job.getName());
+
+        List<String> command = new ArrayList();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Xmx" + jobMemory + "m");
+        command.add("-Djava.awt.headless=true");
+        command.add("-cp");
+        command.add(getAbsoluteClassPath());
+        command.add(GridmapCombiner.class.getName());
+        command.add("-m");
+        command.add(job.getMapFile().getAbsolutePath());
+        command.add("-s");
+        command.add(Paths.get(rootPath, "Data", "maps", "Sites", job.sites).toString());
+        command.add("-o");
+        command.add(folder.getAbsolutePath() + File.separator);
+        command.add("-d");
+        command.add("" + job.dilation);
+        command.add("-p");
+        command.add("" + job.productivity);
+        command.add("-root");
+        command.add(rootPath);
+        command.add("-memory");
+        command.add("" + jobMemory);
+        if (inProcess) {
+            command.add("-inProcess");
+        }
+        if (noCache) {
+            command.add("-noCache");
+        }
+        if (binary) {
+            command.add("-binary");
+        }
+
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.directory(folder);
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(new File(folder, "log.txt"));
+
+        long start = System.currentTimeMillis();
+        try {
+            Process p = pb.start();
+            job.exitCode = p.waitFor();
+        } catch (IOException | InterruptedException ex) {
+            Logger.getLogger(SweepScheduler.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        job.totalTime = System.currentTimeMillis() - start;
+        job.stageTimes = readTiming(folder);
+        System.out.println("Done with " + job.getName() + " in " + job.totalTime + " ms");
+    }
+
+    /**
+     * Returns the classpath of this jvm with all entries made absolute, such
+     * that it can be used from the working directory of a job.
+     *
+     * @return
+     */
+    private String getAbsoluteClassPath() {
+        List<String> entries = new ArrayList();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            entries.add(new File(entry).getAbsolutePath());
+        }
+        return String.join(File.pathSeparator, entries);
+    }
+
+    /**
+     * Reads the running time of each stage written by the job.
+     *
+     * @param folder
+     * @return
+     */
+    private HashMap<String, Long> readTiming(File folder) {
+        HashMap<String, Long> stageTimes = new HashMap();
+        File timingFile = new File(folder, GridmapCombiner.TIMING_FILE);
+        if (!timingFile.exists()) {
+            return stageTimes;
+        }
+        try {
+            for (String line : Files.readAllLines(timingFile.toPath())) {
+                String[] split = line.split("\t");
+                stageTimes.put(split[0], Long.parseLong(split[1]));
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(SweepScheduler.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return stageTimes;
+    }
+
+    /**
+     * Prints a table with the running time in seconds of every stage of
+     * every job. Stages that did not finish are shown as -.
+     */
+    private void printSummary() {
+        int nameWidth = "job".length();
+        for (Job job : jobs) {
+            nameWidth = Math.max(nameWidth, job.getName().length());
+        }
+        String nameFormat = "%-" + nameWidth + "s";
+
+        String header = String.format(nameFormat, "job") + String.format("%6s", "exit");
+        String[] columns = {"partition", "labels", "mosaic", "gridmap"};
+        for (String column : columns) {
+            header += String.format("%11s", column);
+        }
+        header += String.format("%11s", "total");
+        System.out.println(header);
+
+        for (Job job : jobs) {
+            String row = String.format(nameFormat, job.getName()) + String.format("%6d", job.exitCode);
+            for (String stage : GridmapCombiner.STAGES) {
+                Long time = job.stageTimes.get(stage);
+                row += String.format("%11s", time == null ? "-" : String.format("%.1f", time / 1000.0));
+            }
+            row += String.format("%11.1f", job.totalTime / 1000.0);
+            System.out.println(row);
+        }
+    }
+
+    /**
+     * A single combination of the sweep.
+     */
+    private class Job {
+
+        final String map;
+        final String sites;
+        final double dilation;
+        final int productivity;
+
+        //-1 if the jvm of the job could not be run
+        int exitCode = -1;
+        //running time including starting the jvm
+        long totalTime;
+        HashMap<String, Long> stageTimes = new HashMap();
+
+        Job(String map, String sites, double dilation, int productivity) {
+            this.map = map;
+            this.sites = sites;
+            this.dilation = dilation;
+            this.productivity = productivity;
+        }
+
+        String getName() {
+            return map + "Dil" + dilation + "Pro" + (double) productivity;
+        }
+
+        File getMapFile() {
+            return Paths.get(rootPath, "Data", "maps", map).toFile();
+        }
+
+        File getOutputFolder() {
+            return Paths.get(rootPath, "Data", "combinedOutput", getName()).toFile();
+        }
+    }
+}
@@ -7,26 +7,25 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import algorithms.MosaicHeuristic;
 import colouring.Colouring;
 import colouring.RandomNonAdjacentColouring;
 import colouring.colourschemes.ColourSchemes;
 import geom.Point2D;
 import geom.Polygon;
 import gui.panels.MosaicPanel;
-import model.ComponentManager;
-import model.ComponentManager.Component;
+import main.MosaicMaps;
 import model.Cartogram.MosaicCartogram;
 import model.Cartogram.MosaicCartogram.MosaicRegion;
-import model.Network;
 import model.subdivision.Map;
 import model.subdivision.Map.Face;
+import model.util.BinaryInterchange;
 import model.util.ElementList;
 import model.util.IpeExporter;
 import model.util.IpeImporter;
@@ -179,6 +178,7 @@ public class MainGUI {
         private final boolean COLOR_MAP;
         private final boolean VORNOI_ENABLED;
         private final String IPE_FILE_NAME;
+        private final String TILES_FILE_NAME;
         private final String STATS_FILE_NAME;
         private final Double RESOLUTION;
         private final Double UNIT_DATA;
@@ -188,7 +188,6 @@ public class MainGUI {
         private final boolean EXACT_TILES;
         private final boolean EXIT_APP = true;
         private Map map = null;
-        private ComponentManager manager = null;
         private final Double unitData;
 
         public HeuristicRunner(boolean readParameters) {
@@ -210,6 +209,7 @@ public class MainGUI {
                 VORNOI_ENABLED = false;
                 //IPE_FILE_NAME = "world-population.ipe";
                 IPE_FILE_NAME = null;
+                TILES_FILE_NAME = null;
                 //STATS_FILE_NAME = "teste.csv";
                 STATS_FILE_NAME = null;
                 //RESOLUTION = 20.0;
@@ -229,6 +229,7 @@ public class MainGUI {
                 COLOR_MAP = ParameterManager.Application.getColorMap();
                 VORNOI_ENABLED = ParameterManager.Application.getVornoiEnabled();
                 IPE_FILE_NAME = ParameterManager.Application.getIpeFileName();
+                TILES_FILE_NAME = ParameterManager.Application.getTilesFileName();
                 STATS_FILE_NAME = ParameterManager.Application.getStatsFileName();
                 RESOLUTION = ParameterManager.Application.getMosaicResolution();
                 UNIT_DATA = ParameterManager.Application.getUnitData();
@@ -245,87 +246,7 @@ public class MainGUI {
 
         @Override
         public void run() {
-            final double SCALING_THRESHOLD = 10;//7 or 10
-            final double SCALING_FACTOR = 1.4142;
-
-            System.out.println("Full program");
-            // Find average number of tiles per region
-            int totalTiles = 0;
-            for (Map.Face f : map.boundedFaces()) {
-                totalTiles += Math.max(1, (int) Math.round(f.getWeight() / unitData));
-            }
-            double averageTiles = (double) totalTiles / (double) map.numberOfBoundedFaces();
-            double currentUnitData = unitData * averageTiles / SCALING_THRESHOLD;
-            int scalingIteration = 1;
-            System.out.println("Start calculation");
-            while (currentUnitData > SCALING_FACTOR * unitData) {
-                if (scalingIteration == 1) {
-                    manager = new ComponentManager(map, TYPE, currentUnitData, 5);
-                    if (MOSAIC_FILE_NAME != null) {
-                        manager.initializeComponentsFromFile(MOSAIC_FILE_NAME);
-                    } else {
-                        manager.initializeComponentsFromEmbedding();
-                    }
-                } else {
-                    manager.updateUnitData(currentUnitData);
-                }
-                System.out.println("Scaling with currentUnitData = " + String.format("%.2f", currentUnitData));
-                for (Component component : manager.components()) {
-                    MosaicCartogram componentCartogram = component.getCartogram();
-                    Map componentMap = component.getMap();
-                    Network componentWeakDual = component.getWeakDual();
-                    MosaicHeuristic heuristic = new MosaicHeuristic(componentMap, componentWeakDual, componentCartogram);
-                    componentCartogram = heuristic.execute(cartogramPanel, 5000, false, false);//no need for exact tiles yet
-//                        //Intermediate files
-//                        if (IPE_FILE_NAME == null) {
-//                            IpeExporter.exportCartogram(componentCartogram, "cartogram" + scalingIteration + ".ipe");
-//                        } else {
-//                            IpeExporter.exportCartogram(componentCartogram, IPE_FILE_NAME.replace(".", "-" + scalingIteration + "."));
-//                        }
-                    System.out.println("start export coordinates");
-                    componentCartogram.exportCoordinates("coordinates" + scalingIteration + ".coo");
-                    component.setCartogram(componentCartogram);
-                }
-                System.out.println("Getting new unitData");
-                currentUnitData /= SCALING_FACTOR;
-                scalingIteration++;
-            }
-            System.out.println("final run starting");
-            // Final run
-            if (manager == null) {
-                manager = new ComponentManager(map, TYPE, unitData, 5);
-                if (MOSAIC_FILE_NAME != null) {
-                    System.out.println("initializeComponentsFromFile");
-                    manager.initializeComponentsFromFile(MOSAIC_FILE_NAME);
-                } else {
-                    System.out.println("InitializeComponentsFromEmbedding");
-                    manager.initializeComponentsFromEmbedding();
-                }
-            } else {
-                manager.updateUnitData(unitData);
-            }
-            System.out.println("Final run with UNIT_DATA = " + unitData);
-            for (Component component : manager.components()) {
-                System.out.println("start component");
-                MosaicCartogram componentCartogram = component.getCartogram();
-                System.out.println("getMap");
-                Map componentMap = component.getMap();
-                System.out.println("getWeakDual");
-                Network componentWeakDual = component.getWeakDual();
-                MosaicHeuristic heuristic = new MosaicHeuristic(componentMap, componentWeakDual, componentCartogram);
-                System.out.println("execute heuristic");
-                componentCartogram = heuristic.execute(cartogramPanel, 5000, true, EXACT_TILES);//finalize it. If specified use the exact amount of tiles
-
-                System.out.println("start export coordinates");
-                componentCartogram.exportCoordinates("coordinates" + scalingIteration + ".coo");
-                System.out.println("set cartogram");
-                component.setCartogram(componentCartogram);
-                System.out.println("cartogram set");
-            }
-            System.out.println("merging cartograms");
-            MosaicCartogram mergedCartogram = manager.mergeCartograms();
-            System.out.println("Cartograms are merged");
-            mergedCartogram.exportCoordinates("coordinates.coo");
+            MosaicCartogram mergedCartogram = MosaicMaps.computeCartogram(map, TYPE, unitData, MOSAIC_FILE_NAME, EXACT_TILES, cartogramPanel, true);
             System.out.println("set cartogram");
 //            cartogramPanel.setCartogram(mergedCartogram, true);
 //            cartogramPanel.setCartogram(mergedCartogram);
@@ -336,6 +257,13 @@ public class MainGUI {
                 IpeExporter.exportCartogram(mergedCartogram, IPE_FILE_NAME);
             }
             System.out.println("ipe exported");
+            if (TILES_FILE_NAME != null) {
+                try {
+                    MosaicMaps.exportTiles(mergedCartogram, TILES_FILE_NAME);
+                } catch (IOException ex) {
+                    Logger.getLogger(MainGUI.class.getName()).log(Level.SEVERE, null, ex);
+                }
+            }
             System.out.println("done");
             if (EXIT_APP) {
                 System.out.println("exit");
@@ -406,7 +334,16 @@ public class MainGUI {
                 mapFileName = MAP_FILE_NAME.replace(".kml", ".ipe");
             }
             System.out.println("6");
-            map = IpeImporter.importMap(mapFileName);
+            boolean binaryMap = BinaryInterchange.isBinary(Paths.get(mapFileName));
+            if (binaryMap) {
+                try {
+                    map = MosaicMaps.importPartition(mapFileName);
+                } catch (IOException ex) {
+                    throw new RuntimeException("could not read partition " + mapFileName, ex);
+                }
+            } else {
+                map = IpeImporter.importMap(mapFileName);
+            }
             System.out.println("7");
             if (COLOR_MAP) {
                 Colouring c = new RandomNonAdjacentColouring(ColourSchemes.getOxygenColourScheme());
@@ -416,6 +353,13 @@ public class MainGUI {
 //            mapPanel.setMap(map);
             if (DATA_FILE_NAME != null) {
                 importData(DATA_FILE_NAME, map);
+            } else if (binaryMap) {
+                //the weights are stored with the regions
+                try {
+                    MosaicMaps.setWeights(map, MosaicMaps.importPartitionWeights(mapFileName));
+                } catch (IOException ex) {
+                    throw new RuntimeException("could not read weights of partition " + mapFileName, ex);
+                }
             } else {
                 for (Map.Face face : map.boundedFaces()) {
                     face.setWeight(face.getArea());
@@ -0,0 +1,249 @@
+package main;
+
+import java.awt.Color;
+import java.awt.geom.Point2D;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+
+import algorithms.MosaicHeuristic;
+import gui.panels.MosaicPanel;
+import ipe.Document;
+import ipe.objects.Path;
+import ipe.objects.Text;
+import model.ComponentManager;
+import model.ComponentManager.Component;
+import model.Cartogram.MosaicCartogram;
+import model.Cartogram.MosaicCartogram.Coordinate;
+import model.Cartogram.MosaicCartogram.MosaicRegion;
+import model.Network;
+import model.subdivision.Map;
+import model.util.BinaryInterchange;
+import model.util.IpeImporter;
+import parameter.ParameterManager.Application.GridType;
+
+/**
+ * Computes mosaic cartograms without the user interface, such that other
+ * programs can use them without going through files.
+ */
+public final class MosaicMaps {
+
+    private static final double SCALING_THRESHOLD = 10;//7 or 10
+    private static final double SCALING_FACTOR = 1.4142;
+
+    private MosaicMaps() {
+    }
+
+    /**
+     * Imports the map of a partition in the binary interchange format. The map
+     * is built from the same objects as an ipe file with a filled path per
+     * region and a text per label.
+     */
+    public static Map importPartition(String fileName) throws IOException {
+        BinaryInterchange.Reader partition = new BinaryInterchange.Reader(Paths.get(fileName));
+        Document document = new Document();
+        for (int i = 0; i < partition.getCount(); i++) {
+            Path path = new Path();
+            path.moveTo(partition.getVertexX(i, 0), partition.getVertexY(i, 0));
+            for (int j = 1; j < partition.getVertexCount(i); j++) {
+                path.lineTo(partition.getVertexX(i, j), partition.getVertexY(i, j));
+            }
+            path.closePath();
+            path.setFillColor(new Color(partition.getColor(i)));
+            document.addObject(path);
+        }
+        for (int i = 0; i < partition.getCount(); i++) {
+            String label = partition.getLabel(i);
+            if (label != null) {
+                Text text = new Text();
+                text.setText(label);
+                text.setPosition(partition.getX(i), partition.getY(i));
+                document.addObject(text);
+            }
+        }
+        return IpeImporter.importMap(document);
+    }
+
+    /**
+     * Returns the weight of each label of a partition in the binary
+     * interchange format.
+     */
+    public static HashMap<String, Integer> importPartitionWeights(String fileName) throws IOException {
+        BinaryInterchange.Reader partition = new BinaryInterchange.Reader(Paths.get(fileName));
+        HashMap<String, Integer> weights = new HashMap<>();
+        for (int i = 0; i < partition.getCount(); i++) {
+            String label = partition.getLabel(i);
+            if (label != null) {
+                weights.put(label, partition.getWeight(i));
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * Exports the tile centers of the cartogram, as given by
+     * {@link #tileCenters(MosaicCartogram)}, in the binary interchange format.
+     */
+    public static void exportTiles(MosaicCartogram cartogram, String fileName) throws IOException {
+        BinaryInterchange.Writer writer = new BinaryInterchange.Writer(BinaryInterchange.TILES);
+        LinkedHashMap<String, List<Point2D>> centers = tileCenters(cartogram);
+        for (String label : centers.keySet()) {
+            for (Point2D center : centers.get(label)) {
+                writer.addTile(label, center.getX(), center.getY());
+            }
+        }
+        writer.write(Paths.get(fileName));
+    }
+
+    /**
+     * Sets the weight of each bounded face of the map to the weight of its
+     * label.
+     */
+    public static void setWeights(Map map, HashMap<String, Integer> weights) {
+        for (Map.Face f : map.boundedFaces()) {
+            Integer weight = weights.get(f.getLabel().getText());
+            if (weight == null) {
+                throw new RuntimeException("no data found for face " + f.getLabel().getText());
+            }
+            f.setWeight(weight);
+        }
+    }
+
+    /**
+     * Computes the mosaic cartogram of the map, starting at a coarse grid and
+     * refining it until one tile represents {@code unitData}.
+     *
+     * @param mosaicFileName initial mosaic drawing, or null to start from an
+     * embedding
+     * @param panel may be null
+     * @param exportCoordinates whether the coordinates of every iteration are
+     * written to coordinate files
+     */
+    public static MosaicCartogram computeCartogram(Map map, GridType type, double unitData, String mosaicFileName,
+                                                   boolean exactTiles, MosaicPanel panel, boolean exportCoordinates) {
+        ComponentManager manager = null;
+
+        System.out.println("Full program");
+        // Find average number of tiles per region
+        int totalTiles = 0;
+        for (Map.Face f : map.boundedFaces()) {
+            totalTiles += Math.max(1, (int) Math.round(f.getWeight() / unitData));
+        }
+        double averageTiles = (double) totalTiles / (double) map.numberOfBoundedFaces();
+        double currentUnitData = unitData * averageTiles / SCALING_THRESHOLD;
+        int scalingIteration = 1;
+        System.out.println("Start calculation");
+        while (currentUnitData > SCALING_FACTOR * unitData) {
+            if (scalingIteration == 1) {
+                manager = new ComponentManager(map, type, currentUnitData, 5);
+                if (mosaicFileName != null) {
+                    manager.initializeComponentsFromFile(mosaicFileName);
+                } else {
+                    manager.initializeComponentsFromEmbedding();
+                }
+            } else {
+                manager.updateUnitData(currentUnitData);
+            }
+            System.out.println("Scaling with currentUnitData = " + String.format("%.2f", currentUnitData));
+            for (Component component : manager.components()) {
+                MosaicCartogram componentCartogram = component.getCartogram();
+                Map componentMap = component.getMap();
+                Network componentWeakDual = component.getWeakDual();
+                MosaicHeuristic heuristic = new MosaicHeuristic(componentMap, componentWeakDual, componentCartogram);
+                componentCartogram = heuristic.execute(panel, 5000, false, false);//no need for exact tiles yet
+                if (exportCoordinates) {
+                    System.out.println("start export coordinates");
+                    componentCartogram.exportCoordinates("coordinates" + scalingIteration + ".coo");
+                }
+                component.setCartogram(componentCartogram);
+            }
+            System.out.println("Getting new unitData");
+            currentUnitData /= SCALING_FACTOR;
+            scalingIteration++;
+        }
+        System.out.println("final run starting");
+        // Final run
+        if (manager == null) {
+            manager = new ComponentManager(map, type, unitData, 5);
+            if (mosaicFileName != null) {
+                System.out.println("initializeComponentsFromFile");
+                manager.initializeComponentsFromFile(mosaicFileName);
+            } else {
+                System.out.println("InitializeComponentsFromEmbedding");
+                manager.initializeComponentsFromEmbedding();
+            }
+        } else {
+            manager.updateUnitData(unitData);
+        }
+        System.out.println("Final run with UNIT_DATA = " + unitData);
+        for (Component component : manager.components()) {
+            System.out.println("start component");
+            MosaicCartogram componentCartogram = component.getCartogram();
+            Map componentMap = component.getMap();
+            Network componentWeakDual = component.getWeakDual();
+            MosaicHeuristic heuristic = new MosaicHeuristic(componentMap, componentWeakDual, componentCartogram);
+            System.out.println("execute heuristic");
+            componentCartogram = heuristic.execute(panel, 5000, true, exactTiles);//finalize it. If specified use the exact amount of tiles
+            if (exportCoordinates) {
+                System.out.println("start export coordinates");
+                componentCartogram.exportCoordinates("coordinates" + scalingIteration + ".coo");
+            }
+            component.setCartogram(componentCartogram);
+        }
+        System.out.println("merging cartograms");
+        MosaicCartogram mergedCartogram = manager.mergeCartograms();
+        System.out.println("Cartograms are merged");
+        if (exportCoordinates) {
+            mergedCartogram.exportCoordinates("coordinates.coo");
+        }
+        return mergedCartogram;
+    }
+
+    /**
+     * Returns the centers of the tiles of each region, in the order in which
+     * the ipe export writes them. The corners are rounded as in the ipe file
+     * and a center is the mean of the distinct corners, such that the centers
+     * are the same as those read back from the file.
+     */
+    public static LinkedHashMap<String, List<Point2D>> tileCenters(MosaicCartogram cartogram) {
+        LinkedHashMap<String, List<Point2D>> centers = new LinkedHashMap<>();
+        for (MosaicRegion region : cartogram.regions()) {
+            String label = region.getMapFace().getLabel().getText();
+            List<Point2D> regionCenters = centers.get(label);
+            if (regionCenters == null) {
+                regionCenters = new ArrayList<>();
+                centers.put(label, regionCenters);
+            }
+            for (Coordinate c : region) {
+                Point2D[] bp = cartogram.getCell(c).getBoundaryPoints();
+                double firstX = round(bp[0].getX());
+                double firstY = round(bp[0].getY());
+                double sumX = firstX;
+                double sumY = firstY;
+                int vertices = 1;
+                for (int i = 1; i < bp.length; i++) {
+                    double x = round(bp[i].getX());
+                    double y = round(bp[i].getY());
+                    if (x != firstX || y != firstY) {
+                        sumX += x;
+                        sumY += y;
+                        vertices++;
+                    }
+                }
+                regionCenters.add(new Point2D.Double(sumX / vertices, sumY / vertices));
+            }
+        }
+        return centers;
+    }
+
+    /**
+     * Rounds as the ipe export writes coordinates.
+     */
+    private static double round(double value) {
+        return Double.parseDouble(String.format(Locale.US, "%.3f", value));
+    }
+}
@@ -97,7 +97,14 @@ public final class IpeImporter {
         } catch (FileNotFoundException ex) {
             return null;
         }
-        Document document = parser.getDocument();
+        return importMap(parser.getDocument());
+    }
+
+    /**
+     * Imports a map from a document that is already in memory. Paths are the
+     * boundaries of the faces and texts are their labels.
+     */
+    public static Map importMap(Document document) {
         IpeUtils.simplifyDocument(document);
         IpeUtils.setPrecision(document, 4);
 
@@ -98,7 +98,7 @@ public class ParameterManager {
             }
         };
         private static final CommandLineArgument map_file_name
-                                                 = new CommandLineArgument("-map", "Loads an input map file") {
+                                                 = new CommandLineArgument("-map", "Loads an input map file, either ipe or a partition in the binary interchange format") {
             @Override
             public void parse(ListIterator<String> it) throws ArgumentException {
                 Application.mapFileName = parseString(it);
@@ -140,6 +140,14 @@ public class ParameterManager {
             }
         };
 
+        private static final CommandLineArgument tiles_file_name
+                                                 = new CommandLineArgument("-tiles", "Exports the tile centers of the cartogram to a binary interchange file") {
+            @Override
+            public void parse(ListIterator<String> it) throws ArgumentException {
+                Application.tilesFileName = parseString(it);
+            }
+        };
+
         private static final CommandLineArgument stats_file_name
                                                  = new CommandLineArgument("-stats", "Prints stats line to file") {
             @Override
@@ -199,6 +207,7 @@ public class ParameterManager {
         private static String colorFileName = null;
         private static boolean colorMap = false;
         private static String ipeFileName = null;
+        private static String tilesFileName = null;
         private static String statsFileName = null;
         private static Double mosaicResolution = null;
         private static Double unitData = null;
@@ -238,6 +247,10 @@ public class ParameterManager {
             return ipeFileName;
         }
 
+        public static String getTilesFileName() {
+            return tilesFileName;
+        }
+
         public static String getStatsFileName() {
             return statsFileName;
         }